@@ -0,0 +1,203 @@
+package siemens.db.adapt.FailureDetection;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single thread running all detector logic, i.e. received messages, timer expirations
+ * and dissemination requests, one event at a time.
+ *
+ * Events are queued in an unbounded lock-free queue for many producer threads and one consumer,
+ * producers only swap the tail, so enqueueing never blocks. Events are never dropped,
+ * as a lost timer expiration would hide a failure.
+ *
+ * Loop spins for a while after the last event, then parks until next event is queued.
+ * Time spent in queue and time spent running is recorded for every event.
+ */
+public class DetectorEventLoop {
+
+    private static final int IDLE_SPINS = 100;
+
+    /**
+     * Queue node, holds one event.
+     */
+    private static class Event {
+        private final Runnable task;
+        private final long enqueueTime;
+        private volatile Event next;
+
+        private Event(Runnable task, long enqueueTime) {
+            this.task = task;
+            this.enqueueTime = enqueueTime;
+        }
+    }
+
+    // last queued event, swapped by producers
+    private final AtomicReference<Event> tail;
+    // last consumed event, its successor is the next one to run, written by loop thread only
+    private Event head;
+
+    // true while loop thread is parked or about to park
+    private final AtomicBoolean sleeping = new AtomicBoolean(false);
+
+    private final Thread loopThread;
+    private volatile boolean running;
+
+    // counters, written by loop thread only
+    private volatile long eventCount;
+    private volatile long totalQueueNanos;
+    private volatile long maxQueueNanos;
+    private volatile long totalRunNanos;
+    private volatile long maxRunNanos;
+
+    /**
+     * Creates the loop, thread is not started yet.
+     *
+     * @param name name used for loop thread
+     */
+    public DetectorEventLoop(String name) {
+        head = new Event(null, 0);
+        tail = new AtomicReference<>(head);
+
+        loopThread = new Thread(new Runnable() {
+            public void run() {
+                runLoop();
+            }
+        }, "failure-detector-event-loop-" + name);
+        loopThread.setDaemon(true);
+    }
+
+    /**
+     * Starts loop thread.
+     */
+    public void start() {
+        running = true;
+        loopThread.start();
+    }
+
+    /**
+     * Stops loop thread, queued events are discarded.
+     */
+    public void stop() {
+        running = false;
+        LockSupport.unpark(loopThread);
+    }
+
+    /**
+     * Checks if caller runs on loop thread.
+     *
+     * @return true if called by loop thread
+     */
+    public boolean inEventLoop() {
+        return Thread.currentThread() == loopThread;
+    }
+
+    /**
+     * Queues an event, can be called by any thread.
+     *
+     * @param task event
+     */
+    public void execute(Runnable task) {
+        Event event = new Event(task, System.nanoTime());
+
+        // link after previous tail, loop waits for the link if it sees the swap first
+        Event previous = tail.getAndSet(event);
+        previous.next = event;
+
+        if (sleeping.get() && sleeping.compareAndSet(true, false))
+            LockSupport.unpark(loopThread);
+    }
+
+    private void runLoop() {
+        int idleSpins = 0;
+
+        while (running) {
+            Event event = head.next;
+            if (event == null) {
+                idleSpins = idle(idleSpins);
+                continue;
+            }
+            idleSpins = 0;
+
+            // drop reference to consumed task
+            head = event;
+            Runnable task = event.task;
+
+            long startTime = System.nanoTime();
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                // keep running following events
+                e.printStackTrace();
+            }
+            recordLatency(startTime - event.enqueueTime, System.nanoTime() - startTime);
+        }
+    }
+
+    /**
+     * Spins for a while after the last event, then parks until next event is queued.
+     *
+     * @param idleSpins number of empty polls so far
+     * @return updated number of empty polls
+     */
+    private int idle(int idleSpins) {
+        if (idleSpins < IDLE_SPINS)
+            return idleSpins + 1;
+
+        // announce sleep, then check again so an event queued meanwhile is not missed
+        sleeping.set(true);
+        if (head.next == null && running)
+            LockSupport.park(this);
+        sleeping.set(false);
+
+        return idleSpins;
+    }
+
+    private void recordLatency(long queueNanos, long runNanos) {
+        eventCount++;
+        totalQueueNanos += queueNanos;
+        totalRunNanos += runNanos;
+        if (queueNanos > maxQueueNanos)
+            maxQueueNanos = queueNanos;
+        if (runNanos > maxRunNanos)
+            maxRunNanos = runNanos;
+    }
+
+    /**
+     * Returns number of events run.
+     */
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * Returns mean time events waited in queue, in ns.
+     */
+    public long getMeanQueueNanos() {
+        long count = eventCount;
+        return count == 0 ? 0 : totalQueueNanos / count;
+    }
+
+    /**
+     * Returns longest time an event waited in queue, in ns.
+     */
+    public long getMaxQueueNanos() {
+        return maxQueueNanos;
+    }
+
+    /**
+     * Returns mean time events took to run, in ns.
+     */
+    public long getMeanRunNanos() {
+        long count = eventCount;
+        return count == 0 ? 0 : totalRunNanos / count;
+    }
+
+    /**
+     * Returns longest time an event took to run, in ns.
+     */
+    public long getMaxRunNanos() {
+        return maxRunNanos;
+    }
+}
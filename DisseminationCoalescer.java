@@ -0,0 +1,108 @@
+package siemens.db.adapt.FailureDetection;
+
+import siemens.db.adapt.FailureDetection.failuretrigger.HashedWheelTimer;
+import siemens.db.adapt.FailureDetection.failuretrigger.WheelTimeout;
+
+/**
+ * Collapses dissemination triggers into a bounded number of sends.
+ *
+ * First trigger after a quiet window is sent right away, so detection latency does not grow.
+ * Triggers within the window after a send collapse into one send at the end of the window,
+ * which carries the latest state. A periodic message carrying the state makes the pending send obsolete.
+ */
+public class DisseminationCoalescer {
+
+    private final Runnable send;
+    private final long windowInNanos;
+    private final WheelTimeout timeout;
+    private final Object lock = new Object();
+
+    // time of last send, guarded by lock
+    private long lastSendTime;
+    private boolean sentBefore;
+
+    // true while a send is scheduled at the end of the window, guarded by lock
+    private boolean pending;
+
+    /**
+     * Constructor takes the send task and the window.
+     *
+     * @param send task building and disseminating the message
+     * @param windowInMillis window in ms, 0 sends every trigger right away
+     */
+    public DisseminationCoalescer(Runnable send, int windowInMillis) {
+        this.send = send;
+        this.windowInNanos = windowInMillis * 1000000L;
+        this.timeout = HashedWheelTimer.getSharedInstance().newTimeout(new Runnable() {
+            public void run() {
+                flush();
+            }
+        });
+    }
+
+    /**
+     * Sends right away, or at the end of the window if there was a send within the window.
+     */
+    public void trigger() {
+        if (windowInNanos == 0) {
+            send.run();
+            return;
+        }
+
+        synchronized (lock) {
+            // a send is already scheduled, it will carry the latest state
+            if (pending)
+                return;
+
+            long currentTime = System.nanoTime();
+            long elapsed = currentTime - lastSendTime;
+            if (sentBefore && elapsed < windowInNanos) {
+                pending = true;
+                timeout.schedule((windowInNanos - elapsed + 999999L) / 1000000L);
+                return;
+            }
+
+            lastSendTime = currentTime;
+            sentBefore = true;
+        }
+
+        send.run();
+    }
+
+    /**
+     * Runs the pending send. Called by wheel timer at the end of the window.
+     */
+    private void flush() {
+        synchronized (lock) {
+            // cancelled meanwhile
+            if (!pending)
+                return;
+
+            pending = false;
+            lastSendTime = System.nanoTime();
+        }
+
+        send.run();
+    }
+
+    /**
+     * Drops pending send, as the state is about to be sent by a periodic message.
+     * Must be called before the state is attached to the periodic message,
+     * so that later triggers are not dropped.
+     */
+    public void stateSent() {
+        synchronized (lock) {
+            if (pending) {
+                pending = false;
+                timeout.cancel();
+            }
+        }
+    }
+
+    /**
+     * Drops pending send.
+     */
+    public void stop() {
+        stateSent();
+    }
+}
@@ -1,11 +1,13 @@
 package siemens.db.adapt.FailureDetection;
 
 import siemens.db.adapt.FailureDetection.consensus.ConsensusStrategy;
+import siemens.db.adapt.FailureDetection.consensus.ConsensusWithMatrixView;
 import siemens.db.adapt.FailureDetection.dissemination.DisseminationStrategy;
 import siemens.db.adapt.FailureDetection.failuretrigger.AccrualDetectorSamplingWindow;
 import siemens.db.adapt.FailureDetection.failuretrigger.AccrualFailureDetector;
 import siemens.db.adapt.FailureDetection.failuretrigger.FailureTriggerOnTimer;
 import siemens.db.adapt.FailureDetection.failuretrigger.LocalFailureTriggerStrategy;
+import siemens.db.adapt.FailureDetection.signalling.IndirectPingSignalling;
 import siemens.db.adapt.FailureDetection.signalling.SignallingStrategy;
 import siemens.db.adapt.protocol.Failuredetector;
 import siemens.db.adapt.utils.PeerReplica;
@@ -32,6 +34,17 @@ public class FailureDetectorContext {
 
     HashMap<String, PeerReplica> peerReplicaHashMap;
 
+    // replica indices used on the wire, null if replica ID strings are sent
+    private boolean compactReplicaIds;
+    private MembershipDictionary membershipDictionary;
+
+    // collapses consensus triggered disseminations
+    private int disseminationCoalescingWindow;
+    private DisseminationCoalescer disseminationCoalescer;
+
+    // runs all detector logic on one thread, null if logic runs on calling threads
+    private DetectorEventLoop eventLoop;
+
 
     /**
      * Constructor method initiates all strategy objects.
@@ -54,6 +67,23 @@ public class FailureDetectorContext {
         // create failure trigger strategy
         localFailureTriggerStrategy = failureDetectorContextBuilder.getLocalFailureTriggerStrategy();
 
+        compactReplicaIds = failureDetectorContextBuilder.isCompactReplicaIds();
+
+        disseminationCoalescingWindow = failureDetectorContextBuilder.getDisseminationCoalescingWindow();
+        disseminationCoalescer = new DisseminationCoalescer(new Runnable() {
+            public void run() {
+                // window may end on timer thread
+                execute(new Runnable() {
+                    public void run() {
+                        sendTriggeredDissemination();
+                    }
+                });
+            }
+        }, disseminationCoalescingWindow);
+
+        if (failureDetectorContextBuilder.isEventLoop())
+            eventLoop = new DetectorEventLoop("detector");
+
         // initiate history vars
         sentMessages = new HashMap<>();
         receivedMessages = new HashMap<>();
@@ -65,10 +95,18 @@ public class FailureDetectorContext {
      */
     public void start(List<PeerReplica> peerReplicas, String myReplicaId) {
 
+        // strategies below may queue events as soon as they start
+        if (eventLoop != null)
+            eventLoop.start();
+
         peerReplicaHashMap = new HashMap<>();
         for (PeerReplica peerReplica : peerReplicas)
             peerReplicaHashMap.put(peerReplica.getPeerReplicaId(), peerReplica);
 
+        // derive replica indices from sorted membership
+        if (compactReplicaIds)
+            membershipDictionary = new MembershipDictionary(peerReplicaHashMap.keySet(), myReplicaId);
+
         // configure consensus strategy
         consensusStrategy.setReplicas(peerReplicaHashMap, myReplicaId);
         consensusStrategy.setFailureDetectorContext(this);
@@ -84,6 +122,10 @@ public class FailureDetectorContext {
         // start listening
         disseminationStrategy.start(this, peerReplicaHashMap, myReplicaId);
 
+        // start probing
+        if (signallingStrategy instanceof IndirectPingSignalling)
+            ((IndirectPingSignalling) signallingStrategy).start(peerReplicaHashMap);
+
 
     }
 
@@ -118,6 +160,47 @@ public class FailureDetectorContext {
         return consensusStrategy;
     }
 
+    /**
+     * Returns event loop running detector logic, e.g. to read its latency counters.
+     *
+     * @return event loop, null if logic runs on calling threads
+     */
+    public DetectorEventLoop getEventLoop() {
+        return eventLoop;
+    }
+
+    /**
+     * Checks if detector logic can run on calling thread,
+     * i.e. there is no event loop or caller is the event loop.
+     *
+     * @return true if logic can run right away
+     */
+    public boolean inEventLoop() {
+        return eventLoop == null || eventLoop.inEventLoop();
+    }
+
+    /**
+     * Runs given task on event loop, or right away if it can run on calling thread.
+     * Used by strategies to hand over received messages and timer expirations.
+     *
+     * @param task detector logic
+     */
+    public void execute(Runnable task) {
+        if (inEventLoop())
+            task.run();
+        else
+            eventLoop.execute(task);
+    }
+
+    /**
+     * Returns dictionary of replica indices used on the wire.
+     *
+     * @return dictionary, null if replica ID strings are sent
+     */
+    public MembershipDictionary getMembershipDictionary() {
+        return membershipDictionary;
+    }
+
 
 
     /**
@@ -125,8 +208,9 @@ public class FailureDetectorContext {
      * Called by dissemination protocol.
      *
      * @param receivedMessage received message
+     * @param arrivalTimeMillis time the message was drained from the socket
      */
-    public void handleReceivedMessage(Failuredetector.FailureCheck receivedMessage) {
+    public void handleReceivedMessage(Failuredetector.FailureCheck receivedMessage, long arrivalTimeMillis) {
 
         // ignore my own message
         if (receivedMessage.getReplicaId().equals(failureDetectionAndRecoveryModule.getReplicaId()))
@@ -164,10 +248,10 @@ public class FailureDetectorContext {
         signallingStrategy.handleReceivedMessage(receivedMessage);
 
         // notify LocalFailureTriggerStrategy
-        localFailureTriggerStrategy.handleReceivedMessage(receivedMessage);
+        localFailureTriggerStrategy.handleReceivedMessage(receivedMessage, arrivalTimeMillis);
         if (localFailureTriggerStrategy instanceof AccrualFailureDetector &&
                 failureTriggerOnTimerAsBackup != null)
-            failureTriggerOnTimerAsBackup.handleReceivedMessage(receivedMessage);
+            failureTriggerOnTimerAsBackup.handleReceivedMessage(receivedMessage, arrivalTimeMillis);
 
         // trigger consensus algorithm
         consensusStrategy.handleReceivedMessage(receivedMessage);
@@ -179,9 +263,11 @@ public class FailureDetectorContext {
      * Called by dissemination protocol.
      *
      * @param receivedMessage received message
+     * @param deltaTimes time passed since last message of each replica, relative to arrival time
+     * @param arrivalTimeMillis time the message was drained from the socket
      */
     public void handleReceivedMessageFromGossip(Failuredetector.FailureCheck receivedMessage,
-                                                HashMap<String, Long> deltaTimes) {
+                                                HashMap<String, Long> deltaTimes, long arrivalTimeMillis) {
 
         // ignore my own message
         if (receivedMessage.getReplicaId().equals(failureDetectionAndRecoveryModule.getReplicaId()))
@@ -220,10 +306,10 @@ public class FailureDetectorContext {
 
 
         // notify LocalFailureTriggerStrategy
-        localFailureTriggerStrategy.handleReceivedMessageFromGossip(deltaTimes);
+        localFailureTriggerStrategy.handleReceivedMessageFromGossip(deltaTimes, arrivalTimeMillis);
         if (localFailureTriggerStrategy instanceof AccrualFailureDetector &&
                 failureTriggerOnTimerAsBackup != null)
-            failureTriggerOnTimerAsBackup.handleReceivedMessageFromGossip(deltaTimes);
+            failureTriggerOnTimerAsBackup.handleReceivedMessageFromGossip(deltaTimes, arrivalTimeMillis);
 
 
 
@@ -263,12 +349,50 @@ public class FailureDetectorContext {
     }
 
     /**
-     * Builds message with local matrix view payload and signalling header,
-     * and triggers dissemination.
+     * Clears suspicion and consensus flags of a replica which refuted its suspicion,
+     * e.g. by moving to a new incarnation, and lets dissemination strategy include it again.
      *
-     * @return
+     * @param peerReplicaId refuting replica ID
+     */
+    public void clearFailureOnPeerReplica(String peerReplicaId) {
+        PeerReplica peerReplica = peerReplicaHashMap.get(peerReplicaId);
+
+        if (peerReplica.isLocallySuspected() || peerReplica.isLocalSuspicionConsensusReached()
+                || peerReplica.isGlobalSuspicionConsensusReached()) {
+            peerReplica.setLocallySuspected(false);
+            peerReplica.setLocalSuspicionConsensusReached(false);
+            peerReplica.setGlobalSuspicionConsensusReached(false);
+            System.out.println(failureDetectionAndRecoveryModule.getReplicaId() + " : Replica "
+                    + peerReplicaId + " IS ALIVE AGAIN at time " + System.currentTimeMillis());
+        }
+
+        // gossip to the replica again
+        disseminationStrategy.setPeerReplicaAsAlive(peerReplicaId);
+    }
+
+    /**
+     * Triggers dissemination of consensus payload.
+     *
+     * Triggers within the coalescing window are collapsed into one message carrying the latest state.
      */
     public void triggerDissemination() {
+        disseminationCoalescer.trigger();
+    }
+
+    /**
+     * Returns window in which consensus triggered disseminations are collapsed into one send.
+     *
+     * @return time in ms
+     */
+    public int getDisseminationCoalescingWindow() {
+        return disseminationCoalescingWindow;
+    }
+
+    /**
+     * Builds message with local matrix view payload and signalling header,
+     * and disseminates it.
+     */
+    private void sendTriggeredDissemination() {
         // put replica ID
         Failuredetector.FailureCheck.Builder failureCheckMessage =
                 Failuredetector.FailureCheck.newBuilder().setReplicaId(failureDetectionAndRecoveryModule.getReplicaId());
@@ -303,8 +427,11 @@ public class FailureDetectorContext {
 
         // attach consensus payload to the message
         // if consensus strategy requires to do so
-        if (consensusStrategy.attachConsensusPayloadToPeriodicSignallingMessages())
+        // pending triggered dissemination is obsolete then
+        if (consensusStrategy.attachConsensusPayloadToPeriodicSignallingMessages()) {
+            disseminationCoalescer.stateSent();
             consensusStrategy.attachPayload(failureCheckMessage);
+        }
 
 
         // add to sent messages history
@@ -320,6 +447,17 @@ public class FailureDetectorContext {
      * @param failureCheckBuilder
      */
     public void triggerSignallingReply(Failuredetector.FailureCheck.Builder failureCheckBuilder) {
+        triggerSignallingMessage(failureCheckBuilder);
+    }
+
+    /**
+     * Triggers a signalling message with signalling header already set,
+     * e.g. a probe to specific replica.
+     * Used by IndirectPing signalling strategy.
+     *
+     * @param failureCheckBuilder
+     */
+    public void triggerSignallingMessage(Failuredetector.FailureCheck.Builder failureCheckBuilder) {
 
         // put replica ID
         failureCheckBuilder.setReplicaId(failureDetectionAndRecoveryModule.getReplicaId());
@@ -328,14 +466,35 @@ public class FailureDetectorContext {
         sentMessages.put(failureCheckBuilder.getMessageId(), System.nanoTime());
 
         // attach consensus payload to the message
-        // if consensus strategy requires to do so
-        if (consensusStrategy.attachConsensusPayloadToPeriodicSignallingMessages())
+        // if consensus strategy requires to do so, pending triggered dissemination is obsolete then
+        if (consensusStrategy.attachConsensusPayloadToPeriodicSignallingMessages()) {
+            disseminationCoalescer.stateSent();
             consensusStrategy.attachPayload(failureCheckBuilder);
+        }
 
         // disseminate
         disseminationStrategy.disseminateSpecificMessage(failureCheckBuilder);
     }
 
+    /**
+     * Handles acknowledgement of an indirect probe, i.e. another replica received a reply
+     * from given peer replica on our behalf. Local failure trigger strategy counts the peer's
+     * silence from now on, without taking the ack as a heartbeat sample.
+     *
+     * @param peerReplicaId replica which answered the indirect probe
+     */
+    public void handleIndirectProbeAck(String peerReplicaId) {
+        if (!peerReplicaHashMap.containsKey(peerReplicaId))
+            return;
+
+        // relayed ack is no heartbeat, it must not add an inter-arrival sample
+        long currentTimeMillis = System.currentTimeMillis();
+        localFailureTriggerStrategy.refreshArrival(peerReplicaId, currentTimeMillis);
+        if (localFailureTriggerStrategy instanceof AccrualFailureDetector &&
+                failureTriggerOnTimerAsBackup != null)
+            failureTriggerOnTimerAsBackup.refreshArrival(peerReplicaId, currentTimeMillis);
+    }
+
     /**
      * Adds missing fields of given message
      * and disseminates.
@@ -357,7 +516,16 @@ public class FailureDetectorContext {
      *
      * @param replicaId failed replica ID
      */
-    public void setFailed(String replicaId) {
+    public void setFailed(final String replicaId) {
+        // failure triggers expire on timer thread
+        if (!inEventLoop()) {
+            eventLoop.execute(new Runnable() {
+                public void run() {
+                    setFailed(replicaId);
+                }
+            });
+            return;
+        }
 
         if (!peerReplicaHashMap.get(replicaId).isLocallySuspected()) {
             // set locally suspected
@@ -377,11 +545,34 @@ public class FailureDetectorContext {
         failureTriggerOnTimerAsBackup.stop();
     }
 
+    /**
+     * Stops backup FailureTriggerOnTimer for a single peer replica,
+     * used when local failure trigger strategy is ready to take over that replica.
+     *
+     * @param peerReplicaId replica ID
+     */
+    public void stopFailureTriggerOnTimer(String peerReplicaId) {
+        if (failureTriggerOnTimerAsBackup != null)
+            failureTriggerOnTimerAsBackup.stopMonitoring(peerReplicaId);
+    }
+
     /**
      * Stops DisseminationStrategy and Failure Trigger.
      *
      */
     public boolean stopEverything() {
-        return getDisseminationStrategy().stop() && localFailureTriggerStrategy.stop();
+        if (signallingStrategy instanceof IndirectPingSignalling)
+            ((IndirectPingSignalling) signallingStrategy).stop();
+
+        disseminationCoalescer.stop();
+        if (consensusStrategy instanceof ConsensusWithMatrixView)
+            ((ConsensusWithMatrixView) consensusStrategy).stop();
+
+        boolean stopped = getDisseminationStrategy().stop() && localFailureTriggerStrategy.stop();
+
+        if (eventLoop != null)
+            eventLoop.stop();
+
+        return stopped;
     }
 }
@@ -3,6 +3,7 @@ package siemens.db.adapt.FailureDetection;
 import siemens.db.adapt.FailureDetection.consensus.ConsensusStrategy;
 import siemens.db.adapt.FailureDetection.dissemination.DisseminationStrategy;
 import siemens.db.adapt.FailureDetection.failuretrigger.AccrualFailureDetector;
+import siemens.db.adapt.FailureDetection.failuretrigger.AdaptiveArrivalFailureDetector;
 import siemens.db.adapt.FailureDetection.failuretrigger.FailureTriggerOnTimer;
 import siemens.db.adapt.FailureDetection.failuretrigger.LocalFailureTriggerStrategy;
 import siemens.db.adapt.FailureDetection.signalling.SignallingStrategy;
@@ -16,6 +17,9 @@ public class FailureDetectorContextBuilder {
     private LocalFailureTriggerStrategy localFailureTriggerStrategy;
     private int failureTimeout;
     private int disseminationTime;
+    private boolean compactReplicaIds;
+    private int disseminationCoalescingWindow;
+    private boolean eventLoop;
 
     /**
      * Returns Signalling Strategy object.
@@ -59,6 +63,74 @@ public class FailureDetectorContextBuilder {
         return this;
     }
 
+    /**
+     * Returns window in which consensus triggered disseminations are collapsed into one send.
+     *
+     * @return time in ms
+     */
+    public int getDisseminationCoalescingWindow() {
+        return disseminationCoalescingWindow;
+    }
+
+    /**
+     * Sets window in which consensus triggered disseminations are collapsed into one send,
+     * see DisseminationCoalescer. 0, the default, sends every trigger right away.
+     * Window should be shorter than dissemination interval, as next periodic message carries the state anyway.
+     *
+     * @param disseminationCoalescingWindowInMilliSeconds time in ms
+     * @return FailureDetectorContext Builder object.
+     */
+    public FailureDetectorContextBuilder setDisseminationCoalescingWindow(int disseminationCoalescingWindowInMilliSeconds) {
+        this.disseminationCoalescingWindow = disseminationCoalescingWindowInMilliSeconds;
+
+        return this;
+    }
+
+    /**
+     * Returns true if detector logic runs on a single event loop thread.
+     *
+     * @return
+     */
+    public boolean isEventLoop() {
+        return eventLoop;
+    }
+
+    /**
+     * Runs received messages, timer expirations and dissemination requests
+     * on a single event loop thread instead of listener, timer and executor threads.
+     * See DetectorEventLoop.
+     *
+     * @param eventLoop true to use an event loop
+     * @return FailureDetectorContext Builder object.
+     */
+    public FailureDetectorContextBuilder setEventLoop(boolean eventLoop) {
+        this.eventLoop = eventLoop;
+
+        return this;
+    }
+
+    /**
+     * Returns true if replica indices are sent instead of replica ID strings.
+     *
+     * @return
+     */
+    public boolean isCompactReplicaIds() {
+        return compactReplicaIds;
+    }
+
+    /**
+     * Sends indices of the sorted membership instead of replica ID strings
+     * in fault lists, matrix views and gossip payloads. See MembershipDictionary.
+     *
+     * @param compactReplicaIds true to send indices
+     * @return FailureDetectorContext Builder object.
+     */
+    public FailureDetectorContextBuilder setCompactReplicaIds(boolean compactReplicaIds) {
+        this.compactReplicaIds = compactReplicaIds;
+
+        return this;
+    }
+
     /**
      * Returns Dissemination Strategy object.
      *
@@ -113,6 +185,9 @@ public class FailureDetectorContextBuilder {
     /**
      * Sets failure trigger strategy used.
      *
+     * Available strategies are FailureTriggerOnTimer, AdaptiveArrivalFailureDetector,
+     * AccrualFailureDetector (normal distribution) and HistogramAccrualFailureDetector (empirical distribution).
+     *
      * @param localFailureTriggerStrategy
      * @return
      */
@@ -157,9 +232,10 @@ public class FailureDetectorContextBuilder {
         if (disseminationStrategy == null)
             throw new IllegalStateException("Dissemination strategy must be set !");
 
-        if (!(localFailureTriggerStrategy instanceof AccrualFailureDetector) && failureTimeout == 0)
-            throw new IllegalStateException("Either AccrualFailureDetector should be created as " +
-                    "LocalFailureTriggerStrategy, or failure timeout value must be set for FailureTriggerOnTimer" +
+        if (!(localFailureTriggerStrategy instanceof AccrualFailureDetector)
+                && !(localFailureTriggerStrategy instanceof AdaptiveArrivalFailureDetector) && failureTimeout == 0)
+            throw new IllegalStateException("Either AccrualFailureDetector or AdaptiveArrivalFailureDetector should be " +
+                    "created as LocalFailureTriggerStrategy, or failure timeout value must be set for FailureTriggerOnTimer" +
                     "to be used as default strategy.");
 
         else if (localFailureTriggerStrategy == null)
@@ -0,0 +1,289 @@
+package siemens.db.adapt.FailureDetection;
+
+import siemens.db.adapt.protocol.Failuredetector;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps replica IDs to dense integer indices, so payloads carry varints instead of replica ID strings.
+ *
+ * Indices are positions in the sorted membership (own replica included), the same order
+ * RRGossipDissemination uses, so every replica with the same membership derives the same dictionary
+ * without any exchange. Membership epoch is a hash of the sorted membership and is sent with every message.
+ *
+ * Messages are translated at the wire boundary: encode before sending, decode right after parsing,
+ * so consensus, gossip and failure trigger strategies keep working with replica ID strings.
+ * If a message with another epoch is received, its index payloads are dropped and this replica
+ * sends replica ID strings for a while, until memberships agree again.
+ */
+public class MembershipDictionary {
+
+    // time string payloads are sent after an epoch mismatch has been observed
+    private static final long MISMATCH_FALLBACK_IN_MILLIS = 10000;
+
+    private final String[] sortedReplicaIds;
+    private final HashMap<String, Integer> replicaIndices;
+    private final long epoch;
+
+    private volatile long lastMismatchMillis;
+    private volatile long epochMismatchCount;
+
+    /**
+     * Creates dictionary from membership.
+     *
+     * @param peerReplicaIds ids of peer replicas
+     * @param myReplicaId own replica id
+     */
+    public MembershipDictionary(Collection<String> peerReplicaIds, String myReplicaId) {
+        sortedReplicaIds = new String[peerReplicaIds.size() + 1];
+        sortedReplicaIds[0] = myReplicaId;
+        int i = 1;
+        for (String peerReplicaId : peerReplicaIds) {
+            sortedReplicaIds[i] = peerReplicaId;
+            i++;
+        }
+        Arrays.sort(sortedReplicaIds);
+
+        replicaIndices = new HashMap<>(sortedReplicaIds.length * 2);
+        for (int k = 0; k < sortedReplicaIds.length; k++)
+            replicaIndices.put(sortedReplicaIds[k], k);
+
+        epoch = hashMembership(sortedReplicaIds);
+        lastMismatchMillis = 0;
+    }
+
+    /**
+     * FNV-1a hash over sorted replica IDs. Never 0, as 0 marks messages without dictionary.
+     *
+     * @param sortedReplicaIds sorted replica IDs
+     * @return membership epoch
+     */
+    private static long hashMembership(String[] sortedReplicaIds) {
+        long hash = 0xcbf29ce484222325L;
+
+        for (String replicaId : sortedReplicaIds) {
+            for (byte b : replicaId.getBytes(StandardCharsets.UTF_8)) {
+                hash ^= b & 0xFF;
+                hash *= 0x100000001b3L;
+            }
+            // separator, so ["ab", "c"] and ["a", "bc"] differ
+            hash ^= 0xFF;
+            hash *= 0x100000001b3L;
+        }
+
+        return hash == 0 ? 1 : hash;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Returns index of given replica.
+     *
+     * @param replicaId replica ID
+     * @return index, -1 if replica is not a member
+     */
+    public int indexOf(String replicaId) {
+        Integer index = replicaIndices.get(replicaId);
+
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Returns replica at given index.
+     *
+     * @param index index
+     * @return replica ID, null if index is out of range
+     */
+    public String replicaIdAt(int index) {
+        return index >= 0 && index < sortedReplicaIds.length ? sortedReplicaIds[index] : null;
+    }
+
+    public int size() {
+        return sortedReplicaIds.length;
+    }
+
+    /**
+     * Returns number of received messages whose membership epoch did not match.
+     */
+    public long getEpochMismatchCount() {
+        return epochMismatchCount;
+    }
+
+    /**
+     * Replaces replica ID strings of the payload with indices.
+     * IDs which are not members of the dictionary are kept as strings.
+     *
+     * @param failureCheck message with replica ID strings
+     * @return message to be sent
+     */
+    public Failuredetector.FailureCheck encode(Failuredetector.FailureCheck failureCheck) {
+        Failuredetector.FailureCheck.Builder builder = failureCheck.toBuilder().setMembershipEpoch(epoch);
+
+        // peers do not agree on membership, send strings only
+        if (System.currentTimeMillis() - lastMismatchMillis < MISMATCH_FALLBACK_IN_MILLIS)
+            return builder.build();
+
+        // fault lists
+        if (failureCheck.getFaultListPayloadCount() > 0) {
+            builder.clearFaultListPayload();
+            for (String replicaId : failureCheck.getFaultListPayloadList()) {
+                int index = indexOf(replicaId);
+                if (index >= 0)
+                    builder.addFaultListPayloadIndex(index);
+                else
+                    builder.addFaultListPayload(replicaId);
+            }
+        }
+        if (failureCheck.getGlobalConsensusListPayloadCount() > 0) {
+            builder.clearGlobalConsensusListPayload();
+            for (String replicaId : failureCheck.getGlobalConsensusListPayloadList()) {
+                int index = indexOf(replicaId);
+                if (index >= 0)
+                    builder.addGlobalConsensusListPayloadIndex(index);
+                else
+                    builder.addGlobalConsensusListPayload(replicaId);
+            }
+        }
+
+        // gossip delta timestamps
+        if (failureCheck.getGossipPayloadDeltaTimestampsOfReplicasCount() > 0) {
+            builder.clearGossipPayloadDeltaTimestampsOfReplicas();
+            for (Map.Entry<String, Long> entry : failureCheck.getGossipPayloadDeltaTimestampsOfReplicasMap().entrySet()) {
+                int index = indexOf(entry.getKey());
+                if (index >= 0)
+                    builder.putGossipPayloadDeltaTimestampsByIndex(index, entry.getValue());
+                else
+                    builder.putGossipPayloadDeltaTimestampsOfReplicas(entry.getKey(), entry.getValue());
+            }
+        }
+
+        // matrix view, one replica ID per column
+        if (failureCheck.hasMatrixViewPayload())
+            builder.setMatrixViewPayload(encodeMatrixView(failureCheck.getMatrixViewPayload()));
+
+        return builder.build();
+    }
+
+    private Failuredetector.MatrixView encodeMatrixView(Failuredetector.MatrixView matrixView) {
+        // keep epoch, digests and delta flags, only columns are translated
+        Failuredetector.MatrixView.Builder matrixViewBuilder = matrixView.toBuilder().clearMatrixColumn();
+
+        for (Failuredetector.MatrixColumn matrixColumn : matrixView.getMatrixColumnList()) {
+            int viewedIndex = indexOf(matrixColumn.getViewedReplica());
+            if (viewedIndex < 0) {
+                matrixViewBuilder.addMatrixColumn(matrixColumn);
+                continue;
+            }
+
+            // empty viewed replica string marks an indexed column
+            Failuredetector.MatrixColumn.Builder columnBuilder = Failuredetector.MatrixColumn.newBuilder()
+                    .setViewedReplicaIndex(viewedIndex)
+                    .setViewerBitmap(matrixColumn.getViewerBitmap())
+                    .addAllSetViewerSlot(matrixColumn.getSetViewerSlotList());
+            for (Map.Entry<String, Boolean> entry : matrixColumn.getMatrixColumnEntryMap().entrySet()) {
+                int viewerIndex = indexOf(entry.getKey());
+                if (viewerIndex >= 0)
+                    columnBuilder.putMatrixColumnEntryByIndex(viewerIndex, entry.getValue());
+                else
+                    columnBuilder.putMatrixColumnEntry(entry.getKey(), entry.getValue());
+            }
+            matrixViewBuilder.addMatrixColumn(columnBuilder);
+        }
+
+        return matrixViewBuilder.build();
+    }
+
+    /**
+     * Replaces indices of a received payload with replica ID strings.
+     * If sender uses another membership epoch, index payloads can not be resolved and are dropped.
+     *
+     * @param failureCheck received message
+     * @return message with replica ID strings only
+     */
+    public Failuredetector.FailureCheck decode(Failuredetector.FailureCheck failureCheck) {
+        boolean hasIndices = failureCheck.getFaultListPayloadIndexCount() > 0
+                || failureCheck.getGlobalConsensusListPayloadIndexCount() > 0
+                || failureCheck.getGossipPayloadDeltaTimestampsByIndexCount() > 0
+                || failureCheck.hasMatrixViewPayload();
+
+        // epoch 0: sender does not use a dictionary
+        boolean epochMatches = failureCheck.getMembershipEpoch() == epoch;
+        if (!epochMatches && failureCheck.getMembershipEpoch() != 0) {
+            epochMismatchCount++;
+            lastMismatchMillis = System.currentTimeMillis();
+        }
+
+        if (!hasIndices || failureCheck.getMembershipEpoch() == 0)
+            return failureCheck;
+
+        Failuredetector.FailureCheck.Builder builder = failureCheck.toBuilder()
+                .clearFaultListPayloadIndex()
+                .clearGlobalConsensusListPayloadIndex()
+                .clearGossipPayloadDeltaTimestampsByIndex();
+
+        if (!epochMatches) {
+            // indexed matrix columns can not be resolved, string columns are kept
+            if (failureCheck.hasMatrixViewPayload())
+                builder.setMatrixViewPayload(decodeMatrixView(failureCheck.getMatrixViewPayload(), false));
+
+            return builder.build();
+        }
+
+        for (int index : failureCheck.getFaultListPayloadIndexList()) {
+            String replicaId = replicaIdAt(index);
+            if (replicaId != null)
+                builder.addFaultListPayload(replicaId);
+        }
+        for (int index : failureCheck.getGlobalConsensusListPayloadIndexList()) {
+            String replicaId = replicaIdAt(index);
+            if (replicaId != null)
+                builder.addGlobalConsensusListPayload(replicaId);
+        }
+        for (Map.Entry<Integer, Long> entry : failureCheck.getGossipPayloadDeltaTimestampsByIndexMap().entrySet()) {
+            String replicaId = replicaIdAt(entry.getKey());
+            if (replicaId != null)
+                builder.putGossipPayloadDeltaTimestampsOfReplicas(replicaId, entry.getValue());
+        }
+        if (failureCheck.hasMatrixViewPayload())
+            builder.setMatrixViewPayload(decodeMatrixView(failureCheck.getMatrixViewPayload(), true));
+
+        return builder.build();
+    }
+
+    private Failuredetector.MatrixView decodeMatrixView(Failuredetector.MatrixView matrixView, boolean epochMatches) {
+        // keep epoch, digests and delta flags, only columns are translated
+        Failuredetector.MatrixView.Builder matrixViewBuilder = matrixView.toBuilder().clearMatrixColumn();
+
+        for (Failuredetector.MatrixColumn matrixColumn : matrixView.getMatrixColumnList()) {
+            // column with string IDs
+            if (!matrixColumn.getViewedReplica().isEmpty()) {
+                matrixViewBuilder.addMatrixColumn(matrixColumn);
+                continue;
+            }
+
+            String viewedReplica = replicaIdAt(matrixColumn.getViewedReplicaIndex());
+            if (!epochMatches || viewedReplica == null)
+                continue;
+
+            Failuredetector.MatrixColumn.Builder columnBuilder = Failuredetector.MatrixColumn.newBuilder()
+                    .setViewedReplica(viewedReplica)
+                    .setViewerBitmap(matrixColumn.getViewerBitmap())
+                    .addAllSetViewerSlot(matrixColumn.getSetViewerSlotList())
+                    .putAllMatrixColumnEntry(matrixColumn.getMatrixColumnEntryMap());
+            for (Map.Entry<Integer, Boolean> entry : matrixColumn.getMatrixColumnEntryByIndexMap().entrySet()) {
+                String viewerReplica = replicaIdAt(entry.getKey());
+                if (viewerReplica != null)
+                    columnBuilder.putMatrixColumnEntry(viewerReplica, entry.getValue());
+            }
+            matrixViewBuilder.addMatrixColumn(columnBuilder);
+        }
+
+        return matrixViewBuilder.build();
+    }
+}
@@ -2,10 +2,10 @@ package siemens.db.adapt.FailureDetection.consensus;
 
 
 import siemens.db.adapt.FailureDetection.FailureDetectorContext;
+import siemens.db.adapt.FailureDetection.MembershipDictionary;
 import siemens.db.adapt.protocol.Failuredetector;
 import siemens.db.adapt.utils.PeerReplica;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 
 
@@ -13,24 +13,33 @@ import java.util.List;
  *
  * This class implements consensus algorithm which uses failure lists to do its job.
  *
+ * Fault list and global consensus list are arrays indexed by replica slot (position in sorted membership).
+ * Counter of a replica which was not in the previously received list counts as 0,
+ * so merging a received list needs no temporary set and touches received replicas only.
  */
 public class ConsensusWithFailureList implements ConsensusStrategy {
 
 
     private FailureDetectorContext failureDetectorContext;
 
+    // slots of replicas
+    private MembershipDictionary replicaSlots;
+
     // variables for local consensus detection
-    private HashMap<String, Long> faultList;
-    private HashSet<String> replicasAchievedLocalConsensusOn;
+    private SlotList faultList;
 
     // variables for global consensus detection
-    private HashMap<String, Long> globalConsensusList;
-    private HashSet<String> replicasAchievedGlobalConsensusOn;
+    private SlotList globalConsensusList;
 
 
     private String myReplicaID;
+    private int mySlot;
     private long ccnt = 0;
 
+    // consensus payload, rebuilt only after fault list or global consensus list got a new replica
+    private volatile Failuredetector.FailureCheck cachedPayload;
+    private volatile boolean payloadDirty = true;
+
     /**
      * Constructor initializes variables.
      *
@@ -40,15 +49,6 @@ public class ConsensusWithFailureList implements ConsensusStrategy {
      * @param numberOfSuspectingReplicas
      */
     public ConsensusWithFailureList(long numberOfSuspectingReplicas) {
-
-        // initiate fault list
-        faultList = new HashMap<>();
-        globalConsensusList = new HashMap<>();
-
-        // initiate consensus list
-        replicasAchievedLocalConsensusOn = new HashSet<>();
-        replicasAchievedGlobalConsensusOn = new HashSet<>();
-
         this.ccnt = numberOfSuspectingReplicas;
     }
 
@@ -62,16 +62,38 @@ public class ConsensusWithFailureList implements ConsensusStrategy {
     @Override
     public Failuredetector.FailureCheck.Builder attachPayload(Failuredetector.FailureCheck.Builder failureCheckMessage) {
 
-        if (globalConsensusList.size() > 0)
-            failureCheckMessage
-                    .setConsensusPayloadIsGlobalView(true)
-                    .addAllGlobalConsensusListPayload(globalConsensusList.keySet());
-        else
-            failureCheckMessage.setConsensusPayloadIsGlobalView(false);
+        // counters do not go into the payload, only lists of replicas do
+        Failuredetector.FailureCheck payload = cachedPayload;
+        if (payloadDirty || payload == null) {
+            payloadDirty = false;
+            payload = buildPayload();
+            cachedPayload = payload;
+        }
 
-        return failureCheckMessage
-                .addAllFaultListPayload(faultList.keySet())
-                .setConsensusStrategy(Failuredetector.FailureCheck.ConsensusStrategy.FAILURE_LIST);
+        return failureCheckMessage.mergeFrom(payload);
+    }
+
+    /**
+     * Builds message containing consensus payload only.
+     *
+     * @return payload
+     */
+    private Failuredetector.FailureCheck buildPayload() {
+        Failuredetector.FailureCheck.Builder payloadBuilder = Failuredetector.FailureCheck.newBuilder();
+
+        if (globalConsensusList.size > 0) {
+            payloadBuilder.setConsensusPayloadIsGlobalView(true);
+            for (int i = 0; i < globalConsensusList.size; i++)
+                payloadBuilder.addGlobalConsensusListPayload(replicaSlots.replicaIdAt(globalConsensusList.slots[i]));
+        } else
+            payloadBuilder.setConsensusPayloadIsGlobalView(false);
+
+        for (int i = 0; i < faultList.size; i++)
+            payloadBuilder.addFaultListPayload(replicaSlots.replicaIdAt(faultList.slots[i]));
+
+        return payloadBuilder
+                .setConsensusStrategy(Failuredetector.FailureCheck.ConsensusStrategy.FAILURE_LIST)
+                .build();
     }
 
     // TODO: synchronous method due to access to fault list .. ?
@@ -107,49 +129,44 @@ public class ConsensusWithFailureList implements ConsensusStrategy {
      */
     private void mergeFaultLists(List<String> receivedFaultList) {
 
-        // will contain set of replica IDs which did not exist in received fault list
-        HashSet<String> untouchedReplicas = new HashSet<>(faultList.keySet());
-        untouchedReplicas.remove(myReplicaID);
+        // counters of replicas which are not in received list are 0 from now on
+        faultList.generation++;
 
         // go through received payload and merge with local fault list
-        for (String peerReplicaID : receivedFaultList) {
+        for (int i = 0; i < receivedFaultList.size(); i++) {
+            int slot = replicaSlots.indexOf(receivedFaultList.get(i));
 
-            if (!peerReplicaID.equals(myReplicaID)) {
-                // remove this id from untouced replicas list
-                untouchedReplicas.remove(peerReplicaID);
+            if (slot >= 0 && slot != mySlot) {
 
-                if (faultList.containsKey(peerReplicaID)) {
+                if (faultList.contains[slot]) {
 
                     // increment ccnt if local list already contains this replica
                     // only increment in case threshold has not been passed yet, to prevent overflow
-                    if (faultList.get(peerReplicaID) < ccnt) {
-                        faultList.put(peerReplicaID, faultList.get(peerReplicaID) + 1);
-                    }
+                    long counter = faultList.touch(slot);
+                    if (counter < ccnt)
+                        faultList.counters[slot] = ++counter;
 
                     // if not already achieved, check for consensus
-                    if (!replicasAchievedLocalConsensusOn.contains(peerReplicaID) &&
-                            faultList.get(peerReplicaID) >= ccnt) {
-                        failureDetectorContext.setLocalFailureConsensusReachedOnPeerReplica(peerReplicaID);
-                        replicasAchievedLocalConsensusOn.add(peerReplicaID);
+                    if (!faultList.consensusAchieved[slot] && counter >= ccnt) {
+                        failureDetectorContext.setLocalFailureConsensusReachedOnPeerReplica(replicaSlots.replicaIdAt(slot));
+                        faultList.consensusAchieved[slot] = true;
 
                         // add to global consensus list, if not added already
-                        if (!globalConsensusList.containsKey(peerReplicaID)) {
-                            globalConsensusList.put(peerReplicaID, (long) 0);
+                        if (!globalConsensusList.contains[slot]) {
+                            globalConsensusList.add(slot);
+                            payloadDirty = true;
                         }
 
                     }
 
                 } else {
                     // add to local list with ccnt = 0
-                    faultList.put(peerReplicaID, (long) 0);
+                    faultList.add(slot);
+                    faultList.touch(slot);
+                    payloadDirty = true;
                 }
             }
         }
-
-        // reset untouched replicas to 0
-        for (String replicaID : untouchedReplicas) {
-            faultList.put(replicaID, (long) 0);
-        }
     }
 
     /**
@@ -159,30 +176,28 @@ public class ConsensusWithFailureList implements ConsensusStrategy {
      */
     private void mergeGlobalConsensusViewLists(List<String> receivedGlobalConsensusViewList) {
 
-        // will contain set of replica IDs which did not exist in received fault list
-        HashSet<String> untouchedReplicas = new HashSet<>(globalConsensusList.keySet());
-        untouchedReplicas.remove(myReplicaID);
+        // counters of replicas which are not in received list are 0 from now on
+        globalConsensusList.generation++;
 
         // go through received payload and merge with local fault list
-        for (String peerReplicaID : receivedGlobalConsensusViewList) {
+        for (int i = 0; i < receivedGlobalConsensusViewList.size(); i++) {
+            int slot = replicaSlots.indexOf(receivedGlobalConsensusViewList.get(i));
 
-            if (!peerReplicaID.equals(myReplicaID)) {
-                // remove this id from untouced replicas list
-                untouchedReplicas.remove(peerReplicaID);
+            if (slot >= 0 && slot != mySlot) {
 
-                if (globalConsensusList.containsKey(peerReplicaID)) {
+                if (globalConsensusList.contains[slot]) {
 
                     // increment ccnt if local list already contains this replica
                     // only increment in case threshold has not been passed yet, to prevent overflow
-                    if (globalConsensusList.get(peerReplicaID) < ccnt) {
-                        globalConsensusList.put(peerReplicaID, globalConsensusList.get(peerReplicaID) + 1);
-                    }
+                    long counter = globalConsensusList.touch(slot);
+                    if (counter < ccnt)
+                        globalConsensusList.counters[slot] = ++counter;
 
                     // if not already detected, check for consensus
-                    if (!replicasAchievedGlobalConsensusOn.contains(peerReplicaID) &&
-                            globalConsensusList.get(peerReplicaID) >= ccnt) {
+                    if (!globalConsensusList.consensusAchieved[slot] && counter >= ccnt) {
+                        String peerReplicaID = replicaSlots.replicaIdAt(slot);
                         failureDetectorContext.setGlobalFailureConsensusReachedOnPeerReplica(peerReplicaID);
-                        replicasAchievedGlobalConsensusOn.add(peerReplicaID);
+                        globalConsensusList.consensusAchieved[slot] = true;
 
                         System.out.println(myReplicaID + " Global consensus reached for " + peerReplicaID + " at time  " + System.currentTimeMillis());
                     }
@@ -190,15 +205,12 @@ public class ConsensusWithFailureList implements ConsensusStrategy {
                     //failureDetectorContext.triggerDissemination();
                 } else {
                     // add to local list with ccnt = 0
-                    globalConsensusList.put(peerReplicaID, (long) 0);
+                    globalConsensusList.add(slot);
+                    globalConsensusList.touch(slot);
+                    payloadDirty = true;
                 }
             }
         }
-
-        // reset untouched replicas to 0
-        for (String replicaID : untouchedReplicas) {
-            globalConsensusList.put(replicaID, (long) 0);
-        }
     }
 
     /**
@@ -208,9 +220,15 @@ public class ConsensusWithFailureList implements ConsensusStrategy {
      */
     @Override
     public void setReplicas(HashMap<String, PeerReplica> peerReplicaHashMap, String replicaId) {
-        // peer replicas' knowledge is not needed for this algorithm
-
         myReplicaID = replicaId;
+
+        // slots are positions in sorted membership
+        replicaSlots = new MembershipDictionary(peerReplicaHashMap.keySet(), replicaId);
+        mySlot = replicaSlots.indexOf(replicaId);
+
+        // initiate fault list and global consensus list
+        faultList = new SlotList(replicaSlots.size());
+        globalConsensusList = new SlotList(replicaSlots.size());
     }
 
     /**
@@ -221,8 +239,11 @@ public class ConsensusWithFailureList implements ConsensusStrategy {
     @Override
     public void setPeerReplicaAsLocallySuspected(String replicaId) {
 
-        if (!faultList.containsKey(replicaId)) {
-            faultList.put(replicaId, (long) 0);
+        int slot = replicaSlots.indexOf(replicaId);
+
+        if (slot >= 0 && !faultList.contains[slot]) {
+            faultList.add(slot);
+            payloadDirty = true;
             //failureDetectorContext.triggerDissemination();
         }
     }
@@ -248,4 +269,51 @@ public class ConsensusWithFailureList implements ConsensusStrategy {
         return true;
     }
 
+    /**
+     * Fault list or global consensus list indexed by replica slot.
+     * Replicas are never removed, only their counters are reset.
+     */
+    private static class SlotList {
+        // membership and counter of each slot
+        final boolean[] contains;
+        final long[] counters;
+        // generation of the merge which last saw each slot
+        final long[] touchedGeneration;
+        final boolean[] consensusAchieved;
+
+        // slots in the list, in order of addition
+        final int[] slots;
+        int size;
+
+        // generation of the current merge
+        long generation;
+
+        SlotList(int replicaCount) {
+            contains = new boolean[replicaCount];
+            counters = new long[replicaCount];
+            touchedGeneration = new long[replicaCount];
+            consensusAchieved = new boolean[replicaCount];
+            slots = new int[replicaCount];
+        }
+
+        void add(int slot) {
+            contains[slot] = true;
+            counters[slot] = 0;
+            slots[size++] = slot;
+        }
+
+        /**
+         * Marks slot as seen by current merge.
+         *
+         * @param slot slot
+         * @return counter, 0 if slot was not in previously merged list
+         */
+        long touch(int slot) {
+            if (touchedGeneration[slot] < generation - 1)
+                counters[slot] = 0;
+            touchedGeneration[slot] = generation;
+
+            return counters[slot];
+        }
+    }
 }
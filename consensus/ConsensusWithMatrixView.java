@@ -1,25 +1,76 @@
 package siemens.db.adapt.FailureDetection.consensus;
 
+import siemens.db.adapt.FailureDetection.DisseminationCoalescer;
 import siemens.db.adapt.FailureDetection.FailureDetectorContext;
+import siemens.db.adapt.FailureDetection.MembershipDictionary;
 import siemens.db.adapt.FailureDetection.dissemination.RoundRobinGossipDissemination.RRGossipDissemination;
 import siemens.db.adapt.protocol.Failuredetector;
 import siemens.db.adapt.utils.PeerReplica;
 
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * This class implements the consensus algorithm
  * which uses a general view matrix.
+ *
+ * Rows and columns of the matrix are replica slots, i.e. positions in the sorted membership.
+ * Each column is a bitset, see MatrixColumn. Matrix views of other memberships are ignored.
+ *
+ * Columns are stamped with the matrix version of their last change and messages only carry
+ * columns changed since the previous message, so a failure event costs O(changes) per message.
+ * Every message also carries digests of both matrices. If a sender with nothing new to send
+ * has another digest, e.g. because a message was lost, both replicas exchange their full views,
+ * i.e. all columns which ever changed. The exchange is limited per peer, see DivergenceRepair.
+ * While nothing changes, periodic messages reuse one prebuilt payload.
  */
 public class ConsensusWithMatrixView implements ConsensusStrategy {
 
-    // hashmap as a view matrix
-    private Map<String, MatrixColumn> viewMatrix;
+    // received matrices of clusters from this size on are merged in parallel
+    private static final int DEFAULT_PARALLEL_MERGE_THRESHOLD = 1024;
+    // columns merged by one fork join task
+    private static final int COLUMNS_PER_MERGE_TASK = 64;
 
-    // hashmap for global consensus view
-    private Map<String, MatrixColumn> globalConsensusViewMatrix;
+    private int parallelMergeThreshold = DEFAULT_PARALLEL_MERGE_THRESHOLD;
+
+    // view matrix, columns indexed by slot of viewed replica
+    private MatrixColumn[] viewMatrix;
+
+    // global consensus view, columns indexed by slot of viewed replica
+    private MatrixColumn[] globalConsensusViewMatrix;
+
+    // slots of replicas
+    private MembershipDictionary replicaSlots;
+
+    // matrix versions, incremented on every column change
+    private long localViewVersion;
+    private long globalViewVersion;
+
+    // versions already sent, columns with later versions are sent next
+    private long sentLocalViewVersion;
+    private long sentGlobalViewVersion;
+
+    // sums of column digests
+    private long localViewDigest;
+    private long globalViewDigest;
+
+    // payload of periodic messages while nothing changes, null after a change
+    private Failuredetector.MatrixView cachedUnchangedView;
+
+    private final Object versionLock = new Object();
+
+    // limit full view exchanges per peer
+    private DivergenceRepair localViewRepair = new DivergenceRepair(DivergenceRepair.DEFAULT_REQUIRED_MISMATCHES,
+            DivergenceRepair.DEFAULT_MIN_INTERVAL_IN_MILLIS);
+    private DivergenceRepair globalViewRepair = new DivergenceRepair(DivergenceRepair.DEFAULT_REQUIRED_MISMATCHES,
+            DivergenceRepair.DEFAULT_MIN_INTERVAL_IN_MILLIS);
+
+    // collapses global consensus view disseminations, local view ones are collapsed by the context
+    private DisseminationCoalescer globalViewCoalescer;
 
     FailureDetectorContext failureDetectorContext;
     private String myReplicaID;
@@ -33,14 +84,26 @@ public class ConsensusWithMatrixView implements ConsensusStrategy {
     @Override
     public Failuredetector.FailureCheck.Builder attachPayload(Failuredetector.FailureCheck.Builder failureCheckMessage) {
 
-        Failuredetector.MatrixView.Builder matrixViewBuilder = Failuredetector.MatrixView.newBuilder();
-
-        // populate MatrixView message
-        for (MatrixColumn matrixColumn : viewMatrix.values())
-            matrixViewBuilder.addMatrixColumn(matrixColumn.getColumnAsMessageBuilder().build());
+        Failuredetector.MatrixView matrixView;
+        synchronized (versionLock) {
+            // nothing changed since last message, reuse payload
+            if (sentLocalViewVersion == localViewVersion && cachedUnchangedView != null) {
+                matrixView = cachedUnchangedView;
+            } else {
+                // populate MatrixView message with changed columns only
+                matrixView = buildMatrixView(viewMatrix, sentLocalViewVersion)
+                        .setColumnDigest(localViewDigest)
+                        .setGlobalViewDigest(globalViewDigest)
+                        .build();
+
+                if (sentLocalViewVersion == localViewVersion)
+                    cachedUnchangedView = matrixView;
+                sentLocalViewVersion = localViewVersion;
+            }
+        }
 
         return failureCheckMessage
-                .setMatrixViewPayload(matrixViewBuilder.build())
+                .setMatrixViewPayload(matrixView)
                 .setConsensusStrategy(Failuredetector.FailureCheck.ConsensusStrategy.MATRIX_VIEW)
                 .setConsensusPayloadIsGlobalView(false);
     }
@@ -48,15 +111,36 @@ public class ConsensusWithMatrixView implements ConsensusStrategy {
     /**
      * Triggers dissemination of global consensus view matrix.
      *
-     * @return message with payload
+     * Triggers within the coalescing window of the context are collapsed into one message.
      */
     public void triggerGlobalConsensusViewDissemination() {
+        globalViewCoalescer.trigger();
+    }
+
+    /**
+     * Drops pending global consensus view dissemination, e.g. before dissemination strategy is stopped.
+     */
+    public void stop() {
+        if (globalViewCoalescer != null)
+            globalViewCoalescer.stop();
+    }
 
-        Failuredetector.MatrixView.Builder matrixViewBuilder2 = Failuredetector.MatrixView.newBuilder();
+    /**
+     * Disseminates global consensus view columns changed since last send.
+     */
+    private void sendGlobalConsensusView() {
+
+        long sinceVersion;
+        long digest;
+        synchronized (versionLock) {
+            sinceVersion = sentGlobalViewVersion;
+            sentGlobalViewVersion = globalViewVersion;
+            digest = globalViewDigest;
+        }
 
-        // populate MatrixView message
-        for (MatrixColumn matrixColumn : globalConsensusViewMatrix.values())
-            matrixViewBuilder2.addMatrixColumn(matrixColumn.getColumnAsMessageBuilder().build());
+        // populate MatrixView message with changed columns only
+        Failuredetector.MatrixView.Builder matrixViewBuilder2 = buildMatrixView(globalConsensusViewMatrix, sinceVersion)
+                .setColumnDigest(digest);
 
         failureDetectorContext.disseminateConsensusPayload(Failuredetector.FailureCheck.newBuilder()
                 .setMatrixViewPayload(matrixViewBuilder2)
@@ -65,6 +149,93 @@ public class ConsensusWithMatrixView implements ConsensusStrategy {
 
     }
 
+    /**
+     * Sends all columns which ever changed to given replica.
+     *
+     * @param globalView true for global consensus view, false for local view
+     * @param destinationReplicaId destination
+     * @param requestFullView true if destination should answer with its full view
+     */
+    private void sendFullView(boolean globalView, String destinationReplicaId, boolean requestFullView) {
+        long digest;
+        long globalDigest;
+        synchronized (versionLock) {
+            digest = globalView ? globalViewDigest : localViewDigest;
+            globalDigest = globalViewDigest;
+        }
+
+        // columns which never changed have no bit set, no need to send them
+        Failuredetector.MatrixView.Builder matrixViewBuilder =
+                buildMatrixView(globalView ? globalConsensusViewMatrix : viewMatrix, 0)
+                        .setColumnDigest(digest)
+                        .setGlobalViewDigest(globalDigest)
+                        .setFullViewRequested(requestFullView);
+
+        failureDetectorContext.disseminateConsensusPayload(Failuredetector.FailureCheck.newBuilder()
+                .setDestinationReplicaId(destinationReplicaId)
+                .setMatrixViewPayload(matrixViewBuilder)
+                .setConsensusStrategy(Failuredetector.FailureCheck.ConsensusStrategy.MATRIX_VIEW)
+                .setConsensusPayloadIsGlobalView(globalView));
+    }
+
+    /**
+     * Builds MatrixView message of the columns changed after given version.
+     *
+     * @param matrix view matrix or global consensus view matrix
+     * @param sinceVersion version already sent, 0 for all changed columns
+     * @return message builder
+     */
+    private Failuredetector.MatrixView.Builder buildMatrixView(MatrixColumn[] matrix, long sinceVersion) {
+        Failuredetector.MatrixView.Builder matrixViewBuilder = Failuredetector.MatrixView.newBuilder()
+                .setMembershipEpoch(replicaSlots.getEpoch())
+                .setIsDelta(sinceVersion > 0);
+
+        for (MatrixColumn matrixColumn : matrix) {
+            if (matrixColumn.getVersion() > sinceVersion)
+                matrixViewBuilder.addMatrixColumn(matrixColumn.getColumnAsMessageBuilder().build());
+        }
+
+        return matrixViewBuilder;
+    }
+
+    /**
+     * Stamps a changed column with the next version of its matrix and updates digest of the matrix.
+     *
+     * @param matrixColumn changed column
+     * @param digestBefore digest of the column before the change
+     * @param globalView true if column belongs to global consensus view
+     */
+    private void columnChanged(MatrixColumn matrixColumn, long digestBefore, boolean globalView) {
+        synchronized (versionLock) {
+            cachedUnchangedView = null;
+            if (globalView) {
+                globalViewDigest += matrixColumn.getDigest() - digestBefore;
+                matrixColumn.setVersion(++globalViewVersion);
+            } else {
+                localViewDigest += matrixColumn.getDigest() - digestBefore;
+                matrixColumn.setVersion(++localViewVersion);
+            }
+        }
+    }
+
+    /**
+     * Sets viewed replica as failed in given column, if not already set.
+     *
+     * @param matrixColumn column
+     * @param globalView true if column belongs to global consensus view
+     * @return true if consensus has been achieved
+     */
+    private boolean setFailed(MatrixColumn matrixColumn, boolean globalView) {
+        if (matrixColumn.getFailed())
+            return matrixColumn.setFailed();
+
+        long digestBefore = matrixColumn.getDigest();
+        boolean consensusAchieved = matrixColumn.setFailed();
+        columnChanged(matrixColumn, digestBefore, globalView);
+
+        return consensusAchieved;
+    }
+
     /**
      * Handles received heartbeat or ping/reply message coming from other replicas.
      * @param receivedFailureCheckMessage
@@ -72,11 +243,51 @@ public class ConsensusWithMatrixView implements ConsensusStrategy {
     @Override
     public void handleReceivedMessage(Failuredetector.FailureCheck receivedFailureCheckMessage) {
 
+        // bit positions of other memberships are meaningless here
+        if (receivedFailureCheckMessage.getMatrixViewPayload().getMembershipEpoch() != replicaSlots.getEpoch()
+                || replicaSlots.indexOf(receivedFailureCheckMessage.getReplicaId()) < 0)
+            return;
+
         if (receivedFailureCheckMessage.getConsensusPayloadIsGlobalView())
             handleGlobalConsensusView(receivedFailureCheckMessage);
         else
             handleLocalConsensusView(receivedFailureCheckMessage);
 
+        repairDivergentView(receivedFailureCheckMessage);
+    }
+
+    /**
+     * Exchanges full views with the sender if it requested so
+     * or if it keeps having nothing new to send but its matrix differs from ours.
+     *
+     * @param receivedFailureCheckMessage received message, already merged
+     */
+    private void repairDivergentView(Failuredetector.FailureCheck receivedFailureCheckMessage) {
+        Failuredetector.MatrixView matrixView = receivedFailureCheckMessage.getMatrixViewPayload();
+        boolean globalView = receivedFailureCheckMessage.getConsensusPayloadIsGlobalView();
+        String senderReplicaId = receivedFailureCheckMessage.getReplicaId();
+
+        if (matrixView.getFullViewRequested()) {
+            sendFullView(globalView, senderReplicaId, false);
+            return;
+        }
+
+        // digests are compared on periodic messages without changes only,
+        // otherwise views differ anyway while changes are spreading
+        if (globalView || matrixView.getMatrixColumnCount() > 0)
+            return;
+
+        boolean localViewDiffers;
+        boolean globalViewDiffers;
+        synchronized (versionLock) {
+            localViewDiffers = matrixView.getColumnDigest() != localViewDigest;
+            globalViewDiffers = matrixView.getGlobalViewDigest() != globalViewDigest;
+        }
+
+        if (localViewRepair.shouldRepair(senderReplicaId, localViewDiffers))
+            sendFullView(false, senderReplicaId, true);
+        if (globalViewRepair.shouldRepair(senderReplicaId, globalViewDiffers))
+            sendFullView(true, senderReplicaId, true);
     }
 
     /**
@@ -88,36 +299,29 @@ public class ConsensusWithMatrixView implements ConsensusStrategy {
      */
     public void handleLocalConsensusView(Failuredetector.FailureCheck receivedFailureCheckMessage) {
 
-        // TODO optimize: thread pool?
         // merge received view matrix
-        AtomicBoolean changeDetectedLocalMatrix = new AtomicBoolean(false);
+        MergeResult mergeResult = mergeMatrixView(receivedFailureCheckMessage, viewMatrix, false);
         boolean changeDetectedInGlobalMatrix = false;
 
-        for (Failuredetector.MatrixColumn matrixColumn
-                : receivedFailureCheckMessage.getMatrixViewPayload().getMatrixColumnList()) {
+        // merged MatrixColumns which reached local consensus
+        for (int viewedSlot : mergeResult.consensusSlots) {
+            String viewedReplica = replicaSlots.replicaIdAt(viewedSlot);
+
+            // notify PeerReplica object
+            failureDetectorContext.setLocalFailureConsensusReachedOnPeerReplica(viewedReplica);
+
+            // set flag in global consensus matrix and disseminate, if not already set
+            if (!globalConsensusViewMatrix[viewedSlot].getFailed()) {
+                boolean globalConsensusAchieved = setFailed(globalConsensusViewMatrix[viewedSlot], true);
+                if (globalConsensusAchieved)
+                    failureDetectorContext.setGlobalFailureConsensusReachedOnPeerReplica(viewedReplica);
+                changeDetectedInGlobalMatrix = true;
 
-            // merge received MatrixColumn with local MatrixColumn
-            Boolean localConsensusAchieved = viewMatrix.get(matrixColumn.getViewedReplica()).mergeColumn(matrixColumn,
-                    receivedFailureCheckMessage.getReplicaId(), changeDetectedLocalMatrix);
-
-            // check if merged MatrixColumn reached local consensus
-            if (localConsensusAchieved) {
-                // notify PeerReplica object
-                failureDetectorContext.setLocalFailureConsensusReachedOnPeerReplica(matrixColumn.getViewedReplica());
-
-                // set flag in global consensus matrix and disseminate, if not already set
-                if (!globalConsensusViewMatrix.get(matrixColumn.getViewedReplica()).getFailed()) {
-                    boolean globalConsensusAchieved = globalConsensusViewMatrix.get(matrixColumn.getViewedReplica()).setFailed();
-                    if (globalConsensusAchieved)
-                        failureDetectorContext.setGlobalFailureConsensusReachedOnPeerReplica(matrixColumn.getViewedReplica());
-                    changeDetectedInGlobalMatrix = true;
-
-                }
             }
         }
 
         // trigger dissemination if there was a change in local matrix view
-        if (changeDetectedLocalMatrix.get()) {
+        if (mergeResult.changeDetected) {
             failureDetectorContext.triggerDissemination();
             //System.out.println("CHANGE DETECTED IN MATRIX VIEW");
         }
@@ -135,30 +339,159 @@ public class ConsensusWithMatrixView implements ConsensusStrategy {
      * @param receivedFailureCheckMessage
      */
     public void handleGlobalConsensusView(Failuredetector.FailureCheck receivedFailureCheckMessage) {
-        // TODO optimize: thread pool?
         // merge received global consensus view matrix
-        AtomicBoolean changeDetected = new AtomicBoolean(false);
-        for (Failuredetector.MatrixColumn matrixColumn
-                : receivedFailureCheckMessage.getMatrixViewPayload().getMatrixColumnList()) {
+        MergeResult mergeResult = mergeMatrixView(receivedFailureCheckMessage, globalConsensusViewMatrix, true);
 
-            // merge received MatrixColumn with local MatrixColumn
-            Boolean globalConsensusAchieved = globalConsensusViewMatrix.get(matrixColumn.getViewedReplica())
-                    .mergeColumn(matrixColumn, receivedFailureCheckMessage.getReplicaId(), changeDetected);
+        // merged MatrixColumns which reached consensus
+        for (int viewedSlot : mergeResult.consensusSlots) {
+            // notify PeerReplica object
+            failureDetectorContext.setGlobalFailureConsensusReachedOnPeerReplica(replicaSlots.replicaIdAt(viewedSlot));
+        }
+
+        // trigger dissemination if there was a change
+        if (mergeResult.changeDetected) {
+            triggerGlobalConsensusViewDissemination();
+        }
+    }
+
+    /**
+     * Merges all columns of received matrix view into given matrix.
+     * Columns are merged by a fork join pool if the cluster is at least parallelMergeThreshold replicas large.
+     *
+     * @param receivedFailureCheckMessage received message
+     * @param matrix view matrix or global consensus view matrix
+     * @param globalView true if matrix is global consensus view
+     * @return changes and slots of replicas which reached consensus
+     */
+    private MergeResult mergeMatrixView(Failuredetector.FailureCheck receivedFailureCheckMessage,
+                                        MatrixColumn[] matrix, boolean globalView) {
+        List<Failuredetector.MatrixColumn> receivedColumns =
+                receivedFailureCheckMessage.getMatrixViewPayload().getMatrixColumnList();
+        int senderSlot = replicaSlots.indexOf(receivedFailureCheckMessage.getReplicaId());
 
-            // check if merged MatrixColumn reached consensus
-            if (globalConsensusAchieved) {
-                // notify PeerReplica object
-                failureDetectorContext.setGlobalFailureConsensusReachedOnPeerReplica(matrixColumn.getViewedReplica());
+        if (replicaSlots.size() < parallelMergeThreshold || receivedColumns.size() <= COLUMNS_PER_MERGE_TASK)
+            return mergeColumns(receivedColumns, 0, receivedColumns.size(), matrix, senderSlot, globalView);
 
+        return ForkJoinPool.commonPool().invoke(
+                new MergeTask(receivedColumns, 0, receivedColumns.size(), matrix, senderSlot, globalView));
+    }
+
+    /**
+     * Merges a range of received columns. Every column of the matrix is touched by one range only.
+     *
+     * @param receivedColumns received columns
+     * @param from first column to merge
+     * @param to column after the last column to merge
+     * @param matrix view matrix or global consensus view matrix
+     * @param senderSlot slot of sender
+     * @param globalView true if matrix is global consensus view
+     * @return result of the range
+     */
+    private MergeResult mergeColumns(List<Failuredetector.MatrixColumn> receivedColumns, int from, int to,
+                                     MatrixColumn[] matrix, int senderSlot, boolean globalView) {
+        MergeResult mergeResult = new MergeResult();
+        AtomicBoolean columnChanged = new AtomicBoolean(false);
+
+        for (int i = from; i < to; i++) {
+            Failuredetector.MatrixColumn matrixColumn = receivedColumns.get(i);
+
+            int viewedSlot = replicaSlots.indexOf(matrixColumn.getViewedReplica());
+            if (viewedSlot < 0)
+                continue;
+
+            // merge received MatrixColumn with local MatrixColumn
+            long digestBefore = matrix[viewedSlot].getDigest();
+            columnChanged.set(false);
+            boolean consensusAchieved = matrix[viewedSlot].mergeColumn(matrixColumn, senderSlot, columnChanged);
+            if (columnChanged.get()) {
+                columnChanged(matrix[viewedSlot], digestBefore, globalView);
+                mergeResult.changeDetected = true;
             }
+
+            if (consensusAchieved)
+                mergeResult.consensusSlots.add(viewedSlot);
         }
 
-        // trigger dissemination if there was a change
-        if (changeDetected.get()) {
-            triggerGlobalConsensusViewDissemination();
+        return mergeResult;
+    }
+
+    /**
+     * Changes and consensus found by merging a range of columns.
+     */
+    private static class MergeResult {
+        boolean changeDetected;
+        final List<Integer> consensusSlots = new ArrayList<>();
+
+        MergeResult combine(MergeResult other) {
+            changeDetected |= other.changeDetected;
+            consensusSlots.addAll(other.consensusSlots);
+
+            return this;
+        }
+    }
+
+    /**
+     * Splits a range of received columns until it is small enough to be merged by one thread.
+     */
+    private class MergeTask extends RecursiveTask<MergeResult> {
+        private final List<Failuredetector.MatrixColumn> receivedColumns;
+        private final int from;
+        private final int to;
+        private final MatrixColumn[] matrix;
+        private final int senderSlot;
+        private final boolean globalView;
+
+        MergeTask(List<Failuredetector.MatrixColumn> receivedColumns, int from, int to,
+                  MatrixColumn[] matrix, int senderSlot, boolean globalView) {
+            this.receivedColumns = receivedColumns;
+            this.from = from;
+            this.to = to;
+            this.matrix = matrix;
+            this.senderSlot = senderSlot;
+            this.globalView = globalView;
+        }
+
+        @Override
+        protected MergeResult compute() {
+            if (to - from <= COLUMNS_PER_MERGE_TASK)
+                return mergeColumns(receivedColumns, from, to, matrix, senderSlot, globalView);
+
+            int middle = (from + to) >>> 1;
+            MergeTask left = new MergeTask(receivedColumns, from, middle, matrix, senderSlot, globalView);
+            MergeTask right = new MergeTask(receivedColumns, middle, to, matrix, senderSlot, globalView);
+            left.fork();
+
+            MergeResult rightResult = right.compute();
+            return left.join().combine(rightResult);
         }
     }
 
+    /**
+     * Sets cluster size from which on received matrices are merged in parallel.
+     *
+     * @param parallelMergeThreshold number of replicas, own replica included
+     * @return this consensus strategy
+     */
+    public ConsensusWithMatrixView setParallelMergeThreshold(int parallelMergeThreshold) {
+        this.parallelMergeThreshold = parallelMergeThreshold;
+
+        return this;
+    }
+
+    /**
+     * Sets when diverged views are exchanged in full with a peer.
+     *
+     * @param requiredMismatches consecutive messages without changes but with another digest
+     * @param minIntervalInMillis minimum time between two exchanges with the same peer
+     * @return this consensus strategy
+     */
+    public ConsensusWithMatrixView setDivergenceRepair(int requiredMismatches, int minIntervalInMillis) {
+        this.localViewRepair = new DivergenceRepair(requiredMismatches, minIntervalInMillis);
+        this.globalViewRepair = new DivergenceRepair(requiredMismatches, minIntervalInMillis);
+
+        return this;
+    }
+
     /**
      * Sets FailureDetectorContext object.
      *
@@ -166,11 +499,22 @@ public class ConsensusWithMatrixView implements ConsensusStrategy {
      */
     public void setFailureDetectorContext(FailureDetectorContext failureDetectionContext) {
         this.failureDetectorContext = failureDetectionContext;
+        this.globalViewCoalescer = new DisseminationCoalescer(new Runnable() {
+            public void run() {
+                // window may end on timer thread
+                failureDetectorContext.execute(new Runnable() {
+                    public void run() {
+                        sendGlobalConsensusView();
+                    }
+                });
+            }
+        }, failureDetectionContext.getDisseminationCoalescingWindow());
     }
 
     @Override
     public boolean attachConsensusPayloadToPeriodicSignallingMessages() {
-        return false;
+        // periodic messages carry digests, and changes if there are any
+        return true;
     }
 
     /**
@@ -181,45 +525,22 @@ public class ConsensusWithMatrixView implements ConsensusStrategy {
      */
     @Override
     public void setReplicas(HashMap<String, PeerReplica> peerReplicaHashMap, String replicaId) {
-        viewMatrix = new HashMap<>(peerReplicaHashMap.size());
-        globalConsensusViewMatrix = new HashMap<>(peerReplicaHashMap.size());
         this.myReplicaID = replicaId;
 
-        // build view matrix and fault vector
-        for (PeerReplica peerReplicaViewed : peerReplicaHashMap.values()) {
-            // create matrix column
-            MatrixColumn matrixColumn = new MatrixColumn(peerReplicaViewed.getPeerReplicaId(), replicaId);
-            MatrixColumn consensusViewColumn = new MatrixColumn(peerReplicaViewed.getPeerReplicaId(), replicaId);
-
-            // populate matrix column
-            matrixColumn.addViewer(replicaId);
-            consensusViewColumn.addViewer(replicaId);
-            for (PeerReplica peerReplicaViewer : peerReplicaHashMap.values()) {
-                matrixColumn.addViewer(peerReplicaViewer.getPeerReplicaId());
-                consensusViewColumn.addViewer(peerReplicaViewer.getPeerReplicaId());
-            }
-
-            // populate matrix
-            viewMatrix.put(peerReplicaViewed.getPeerReplicaId(), matrixColumn);
-            globalConsensusViewMatrix.put(peerReplicaViewed.getPeerReplicaId(), consensusViewColumn);
+        // slots are positions in sorted membership, same on every replica
+        replicaSlots = new MembershipDictionary(peerReplicaHashMap.keySet(), replicaId);
+        int replicaCount = replicaSlots.size();
+        int mySlot = replicaSlots.indexOf(replicaId);
 
+        viewMatrix = new MatrixColumn[replicaCount];
+        globalConsensusViewMatrix = new MatrixColumn[replicaCount];
 
+        // build view matrix and fault vector, entry for this replica itself included
+        for (int slot = 0; slot < replicaCount; slot++) {
+            String viewedReplica = replicaSlots.replicaIdAt(slot);
+            viewMatrix[slot] = new MatrixColumn(viewedReplica, replicaId, slot, mySlot, replicaCount);
+            globalConsensusViewMatrix[slot] = new MatrixColumn(viewedReplica, replicaId, slot, mySlot, replicaCount);
         }
-
-        // create matrix entry for this replica itself
-        MatrixColumn matrixColumn = new MatrixColumn(replicaId, replicaId);
-        MatrixColumn consensusViewColumn = new MatrixColumn(replicaId, replicaId);
-
-        matrixColumn.addViewer(replicaId);
-        consensusViewColumn.addViewer(replicaId);
-
-        for (PeerReplica peerReplicaViewer : peerReplicaHashMap.values()) {
-            matrixColumn.addViewer(peerReplicaViewer.getPeerReplicaId());
-            consensusViewColumn.addViewer(peerReplicaViewer.getPeerReplicaId());
-        }
-
-        viewMatrix.put(replicaId, matrixColumn);
-        globalConsensusViewMatrix.put(replicaId, consensusViewColumn);
     }
 
 
@@ -232,14 +553,15 @@ public class ConsensusWithMatrixView implements ConsensusStrategy {
      */
     public void setPeerReplicaAsLocallySuspected(String replicaId) {
         //System.out.println(myReplicaID + " : REPLICA " + replicaId + " is locally SET FAILED ");
-        boolean localConsensusAchieved = viewMatrix.get(replicaId).setFailed();
+        int slot = replicaSlots.indexOf(replicaId);
+        boolean localConsensusAchieved = setFailed(viewMatrix[slot], false);
         if (localConsensusAchieved) {
             // local consensus reached
             failureDetectorContext.setLocalFailureConsensusReachedOnPeerReplica(replicaId);
 
             // set flag in global consensus matrix and disseminate, if not already set
-            if (!globalConsensusViewMatrix.get(replicaId).getFailed()) {
-                boolean globalConsensusAchieved = globalConsensusViewMatrix.get(replicaId).setFailed();
+            if (!globalConsensusViewMatrix[slot].getFailed()) {
+                boolean globalConsensusAchieved = setFailed(globalConsensusViewMatrix[slot], true);
                 if (globalConsensusAchieved)
                     failureDetectorContext.setGlobalFailureConsensusReachedOnPeerReplica(replicaId);
                 triggerGlobalConsensusViewDissemination();
@@ -0,0 +1,368 @@
+package siemens.db.adapt.FailureDetection.consensus;
+
+import siemens.db.adapt.FailureDetection.FailureDetectorContext;
+import siemens.db.adapt.FailureDetection.MembershipDictionary;
+import siemens.db.adapt.protocol.Failuredetector;
+import siemens.db.adapt.utils.PeerReplica;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * This class implements consensus algorithm on a state based CRDT of membership entries,
+ * i.e. (replica, incarnation, votes) per replica, see MembershipEntry.
+ *
+ * Merge is a join, so received states can be applied in any order, any number of times.
+ * Local consensus on a replica is reached once a quorum of replicas suspects its current incarnation,
+ * global consensus once a quorum of replicas reached local consensus on it.
+ * A replica which learns that it is suspected bumps its incarnation, which clears
+ * the suspicion everywhere, e.g. after recovering from a network partition.
+ *
+ * Messages only carry entries changed since the previous message and a digest of the whole state.
+ * If a sender with nothing new to send has another digest, both replicas exchange their full states,
+ * i.e. all entries which ever changed. The exchange is limited per peer, see DivergenceRepair.
+ */
+public class ConsensusWithMembershipCrdt implements ConsensusStrategy {
+
+    private FailureDetectorContext failureDetectorContext;
+
+    // slots of replicas
+    private MembershipDictionary replicaSlots;
+    private String myReplicaID;
+    private int mySlot;
+
+    // entries indexed by slot, null while incarnation is 0 and nobody voted
+    private MembershipEntry[] entries;
+
+    // quorum as configured, 0 for majority
+    private int configuredQuorum;
+    private int quorum;
+
+    // state version, incremented on every entry change
+    private long stateVersion;
+    // version already sent, entries with later versions are sent next
+    private long sentStateVersion;
+    // sum of entry digests
+    private long stateDigest;
+
+    // payload of periodic messages while nothing changes, null after a change
+    private Failuredetector.MembershipState cachedUnchangedState;
+
+    private final Object stateLock = new Object();
+
+    // limits full state exchanges per peer
+    private DivergenceRepair stateRepair = new DivergenceRepair(DivergenceRepair.DEFAULT_REQUIRED_MISMATCHES,
+            DivergenceRepair.DEFAULT_MIN_INTERVAL_IN_MILLIS);
+
+    /**
+     * Creates strategy which decides on majority of replicas.
+     */
+    public ConsensusWithMembershipCrdt() {
+        this(0);
+    }
+
+    /**
+     * Creates strategy with given quorum.
+     *
+     * @param quorum number of replicas whose votes are needed, 0 for majority.
+     *               Capped at number of replicas minus one, as suspected replica does not vote.
+     */
+    public ConsensusWithMembershipCrdt(int quorum) {
+        this.configuredQuorum = quorum;
+    }
+
+    /**
+     * Sets when diverged states are exchanged in full with a peer.
+     *
+     * @param requiredMismatches consecutive messages without changes but with another digest
+     * @param minIntervalInMillis minimum time between two exchanges with the same peer
+     * @return this consensus strategy
+     */
+    public ConsensusWithMembershipCrdt setDivergenceRepair(int requiredMismatches, int minIntervalInMillis) {
+        this.stateRepair = new DivergenceRepair(requiredMismatches, minIntervalInMillis);
+
+        return this;
+    }
+
+    /**
+     * Attaches changed entries and state digest to the message.
+     *
+     * @param failureCheckMessage message to be sent to other replicas.
+     * @return message with payload
+     */
+    @Override
+    public Failuredetector.FailureCheck.Builder attachPayload(Failuredetector.FailureCheck.Builder failureCheckMessage) {
+
+        Failuredetector.MembershipState membershipState;
+        synchronized (stateLock) {
+            // nothing changed since last message, reuse payload
+            if (sentStateVersion == stateVersion && cachedUnchangedState != null) {
+                membershipState = cachedUnchangedState;
+            } else {
+                membershipState = buildState(sentStateVersion).build();
+
+                if (sentStateVersion == stateVersion)
+                    cachedUnchangedState = membershipState;
+                sentStateVersion = stateVersion;
+            }
+        }
+
+        return failureCheckMessage
+                .setMembershipStatePayload(membershipState)
+                .setConsensusStrategy(Failuredetector.FailureCheck.ConsensusStrategy.MEMBERSHIP_CRDT);
+    }
+
+    /**
+     * Builds MembershipState message of the entries changed after given version. Called holding state lock.
+     *
+     * @param sinceVersion version already sent, 0 for all changed entries
+     * @return message builder
+     */
+    private Failuredetector.MembershipState.Builder buildState(long sinceVersion) {
+        Failuredetector.MembershipState.Builder membershipStateBuilder = Failuredetector.MembershipState.newBuilder()
+                .setMembershipEpoch(replicaSlots.getEpoch())
+                .setStateDigest(stateDigest);
+
+        for (MembershipEntry membershipEntry : entries) {
+            if (membershipEntry != null && membershipEntry.getVersion() > sinceVersion)
+                membershipStateBuilder.addEntry(membershipEntry.getEntryAsMessageBuilder());
+        }
+
+        return membershipStateBuilder;
+    }
+
+    /**
+     * Sends all entries which ever changed to given replica.
+     *
+     * @param destinationReplicaId destination
+     * @param requestFullState true if destination should answer with its full state
+     */
+    private void sendFullState(String destinationReplicaId, boolean requestFullState) {
+        Failuredetector.MembershipState.Builder membershipStateBuilder;
+        synchronized (stateLock) {
+            membershipStateBuilder = buildState(0).setFullStateRequested(requestFullState);
+        }
+
+        failureDetectorContext.disseminateConsensusPayload(Failuredetector.FailureCheck.newBuilder()
+                .setDestinationReplicaId(destinationReplicaId)
+                .setMembershipStatePayload(membershipStateBuilder)
+                .setConsensusStrategy(Failuredetector.FailureCheck.ConsensusStrategy.MEMBERSHIP_CRDT));
+    }
+
+    /**
+     * Entry of given replica, created on first change. Called holding state lock.
+     *
+     * @param slot slot of replica
+     * @return entry, null if slot is not valid
+     */
+    private MembershipEntry entryOf(int slot) {
+        if (slot < 0 || slot >= entries.length)
+            return null;
+
+        if (entries[slot] == null)
+            entries[slot] = new MembershipEntry(slot, entries.length);
+
+        return entries[slot];
+    }
+
+    /**
+     * Stamps a changed entry with the next state version and updates state digest. Called holding state lock.
+     *
+     * @param membershipEntry changed entry
+     * @param digestBefore digest of the entry before the change
+     */
+    private void entryChanged(MembershipEntry membershipEntry, long digestBefore) {
+        cachedUnchangedState = null;
+        stateDigest += membershipEntry.getDigest() - digestBefore;
+        membershipEntry.setVersion(++stateVersion);
+    }
+
+    /**
+     * Joins received state into local state, checks for quorums and repairs divergent states.
+     *
+     * @param receivedFailureCheckMessage
+     */
+    @Override
+    public void handleReceivedMessage(Failuredetector.FailureCheck receivedFailureCheckMessage) {
+
+        // slots of other memberships are meaningless here
+        Failuredetector.MembershipState membershipState = receivedFailureCheckMessage.getMembershipStatePayload();
+        if (membershipState.getMembershipEpoch() != replicaSlots.getEpoch())
+            return;
+
+        List<Integer> refutedSlots = new ArrayList<>();
+        List<Integer> localConsensusSlots = new ArrayList<>();
+        List<Integer> globalConsensusSlots = new ArrayList<>();
+        boolean changeDetected = false;
+        boolean digestDiffers;
+
+        synchronized (stateLock) {
+            for (Failuredetector.SuspectVotes receivedEntry : membershipState.getEntryList()) {
+                MembershipEntry membershipEntry = entryOf(receivedEntry.getSuspectSlot());
+                if (membershipEntry == null)
+                    continue;
+
+                long digestBefore = membershipEntry.getDigest();
+                long incarnationBefore = membershipEntry.getIncarnation();
+                int suspicionsBefore = membershipEntry.getVotes().getSuspicionCount();
+                int decisionsBefore = membershipEntry.getVotes().getDecisionCount();
+                if (!membershipEntry.merge(receivedEntry))
+                    continue;
+                changeDetected = true;
+
+                // I am suspected, refute with next incarnation
+                if (receivedEntry.getSuspectSlot() == mySlot) {
+                    if (membershipEntry.getVotes().getSuspicionCount() > 0)
+                        membershipEntry.refute();
+                    entryChanged(membershipEntry, digestBefore);
+                    continue;
+                }
+
+                // votes on an older incarnation do not count any more
+                if (membershipEntry.getIncarnation() > incarnationBefore) {
+                    refutedSlots.add(receivedEntry.getSuspectSlot());
+                    suspicionsBefore = 0;
+                    decisionsBefore = 0;
+                }
+
+                if (suspicionsBefore < quorum && membershipEntry.getVotes().getSuspicionCount() >= quorum)
+                    localConsensusSlots.add(receivedEntry.getSuspectSlot());
+                if (decisionsBefore < quorum && membershipEntry.getVotes().getDecisionCount() >= quorum)
+                    globalConsensusSlots.add(receivedEntry.getSuspectSlot());
+
+                entryChanged(membershipEntry, digestBefore);
+            }
+
+            digestDiffers = membershipState.getStateDigest() != stateDigest;
+        }
+
+        if (changeDetected)
+            stateChanged(refutedSlots, localConsensusSlots, globalConsensusSlots);
+
+        // anti-entropy, digests are compared on messages without changes only
+        String senderReplicaId = receivedFailureCheckMessage.getReplicaId();
+        if (membershipState.getFullStateRequested())
+            sendFullState(senderReplicaId, false);
+        else if (membershipState.getEntryCount() == 0 && stateRepair.shouldRepair(senderReplicaId, digestDiffers))
+            sendFullState(senderReplicaId, true);
+    }
+
+    /**
+     * Notifies context about refuted suspicions and reached consensus, adds own decision votes
+     * and disseminates the changes.
+     *
+     * @param refutedSlots slots of replicas which moved to a new incarnation
+     * @param localConsensusSlots slots of replicas which reached local consensus
+     * @param globalConsensusSlots slots of replicas which reached global consensus
+     */
+    private void stateChanged(List<Integer> refutedSlots, List<Integer> localConsensusSlots,
+                              List<Integer> globalConsensusSlots) {
+
+        for (int slot : refutedSlots)
+            failureDetectorContext.clearFailureOnPeerReplica(replicaSlots.replicaIdAt(slot));
+
+        for (int slot : localConsensusSlots) {
+            failureDetectorContext.setLocalFailureConsensusReachedOnPeerReplica(replicaSlots.replicaIdAt(slot));
+
+            // vote for global consensus
+            boolean globalConsensusAchieved;
+            synchronized (stateLock) {
+                MembershipEntry membershipEntry = entries[slot];
+                long digestBefore = membershipEntry.getDigest();
+                globalConsensusAchieved = membershipEntry.getVotes().addDecision(mySlot)
+                        && membershipEntry.getVotes().getDecisionCount() == quorum;
+                entryChanged(membershipEntry, digestBefore);
+            }
+            if (globalConsensusAchieved)
+                globalConsensusSlots.add(slot);
+        }
+
+        for (int slot : globalConsensusSlots)
+            failureDetectorContext.setGlobalFailureConsensusReachedOnPeerReplica(replicaSlots.replicaIdAt(slot));
+
+        // spread changes right away instead of waiting for next periodic message
+        failureDetectorContext.triggerDissemination();
+    }
+
+    /**
+     * Creates membership state and computes quorum.
+     *
+     * @param peerReplicaHashMap list of peer replicas
+     * @param replicaId parent replica ID
+     */
+    @Override
+    public void setReplicas(HashMap<String, PeerReplica> peerReplicaHashMap, String replicaId) {
+        myReplicaID = replicaId;
+
+        // slots are positions in sorted membership, same on every replica
+        replicaSlots = new MembershipDictionary(peerReplicaHashMap.keySet(), replicaId);
+        mySlot = replicaSlots.indexOf(replicaId);
+        entries = new MembershipEntry[replicaSlots.size()];
+
+        // majority of all replicas, suspected replica does not vote
+        quorum = configuredQuorum > 0 ? configuredQuorum : replicaSlots.size() / 2 + 1;
+        quorum = Math.max(1, Math.min(quorum, replicaSlots.size() - 1));
+    }
+
+    /**
+     * Votes for current incarnation of given replica being failed.
+     *
+     * @param replicaId failed replica's ID
+     */
+    @Override
+    public void setPeerReplicaAsLocallySuspected(String replicaId) {
+        int slot = replicaSlots.indexOf(replicaId);
+        if (slot < 0 || slot == mySlot)
+            return;
+
+        List<Integer> localConsensusSlots = new ArrayList<>();
+        synchronized (stateLock) {
+            MembershipEntry membershipEntry = entryOf(slot);
+            long digestBefore = membershipEntry.getDigest();
+            if (!membershipEntry.getVotes().addSuspicion(mySlot))
+                return;
+            entryChanged(membershipEntry, digestBefore);
+
+            if (membershipEntry.getVotes().getSuspicionCount() == quorum)
+                localConsensusSlots.add(slot);
+        }
+
+        stateChanged(new ArrayList<Integer>(), localConsensusSlots, new ArrayList<Integer>());
+    }
+
+    /**
+     * Sets FailureDetectorContext object.
+     *
+     * @param failureDetectionContext
+     */
+    @Override
+    public void setFailureDetectorContext(FailureDetectorContext failureDetectionContext) {
+        this.failureDetectorContext = failureDetectionContext;
+    }
+
+    /**
+     * Periodic messages carry state digest, and changes if there are any.
+     *
+     * @return true
+     */
+    @Override
+    public boolean attachConsensusPayloadToPeriodicSignallingMessages() {
+        return true;
+    }
+
+    /**
+     * Returns own incarnation, incremented every time this replica refuted a suspicion.
+     *
+     * @return incarnation
+     */
+    public long getIncarnation() {
+        synchronized (stateLock) {
+            return entries[mySlot] == null ? 0 : entries[mySlot].getIncarnation();
+        }
+    }
+
+    public int getQuorum() {
+        return quorum;
+    }
+}
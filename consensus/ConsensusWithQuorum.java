@@ -0,0 +1,259 @@
+package siemens.db.adapt.FailureDetection.consensus;
+
+import siemens.db.adapt.FailureDetection.FailureDetectorContext;
+import siemens.db.adapt.FailureDetection.MembershipDictionary;
+import siemens.db.adapt.protocol.Failuredetector;
+import siemens.db.adapt.utils.PeerReplica;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * This class implements consensus algorithm which decides on a quorum of votes
+ * instead of waiting for all replicas.
+ *
+ * Local consensus on a replica is reached once a quorum of replicas suspects it,
+ * global consensus once a quorum of replicas reached local consensus on it.
+ * Every replica gossips all votes it knows, so a decision takes as long as the fastest quorum
+ * and slow replicas can not stall it.
+ *
+ * Voters are identified by replica slot (position in sorted membership) and votes are tagged with
+ * membership epoch, votes of another membership are ignored.
+ */
+public class ConsensusWithQuorum implements ConsensusStrategy {
+
+    private FailureDetectorContext failureDetectorContext;
+
+    // slots of replicas
+    private MembershipDictionary replicaSlots;
+    private String myReplicaID;
+    private int mySlot;
+
+    // votes on suspected replicas indexed by slot, null if nobody voted yet
+    private QuorumVote[] votes;
+
+    // slots having votes, in order of the first vote
+    private final List<QuorumVote> votedReplicas = new ArrayList<>();
+
+    // quorum as configured, 0 for majority
+    private int configuredQuorum;
+    private int quorum;
+
+    private final Object voteLock = new Object();
+
+    // incremented on every new vote, guarded by vote lock
+    private long voteVersion;
+
+    // consensus payload and vote version it was built from, rebuilt only after a new vote
+    private Failuredetector.QuorumVotes cachedPayload;
+    private long cachedPayloadVersion;
+
+    /**
+     * Creates strategy which decides on majority of replicas.
+     */
+    public ConsensusWithQuorum() {
+        this(0);
+    }
+
+    /**
+     * Creates strategy with given quorum.
+     *
+     * @param quorum number of replicas whose votes are needed, 0 for majority.
+     *               Capped at number of replicas minus one, as suspected replica does not vote.
+     */
+    public ConsensusWithQuorum(int quorum) {
+        this.configuredQuorum = quorum;
+    }
+
+    /**
+     * Attaches known votes to the message.
+     *
+     * @param failureCheckMessage message to be sent to other replicas.
+     * @return message with payload
+     */
+    @Override
+    public Failuredetector.FailureCheck.Builder attachPayload(Failuredetector.FailureCheck.Builder failureCheckMessage) {
+
+        Failuredetector.QuorumVotes payload;
+        synchronized (voteLock) {
+            if (cachedPayload == null || cachedPayloadVersion != voteVersion) {
+                Failuredetector.QuorumVotes.Builder quorumVotesBuilder = Failuredetector.QuorumVotes.newBuilder()
+                        .setMembershipEpoch(replicaSlots.getEpoch());
+                for (QuorumVote quorumVote : votedReplicas)
+                    quorumVotesBuilder.addSuspectVotes(quorumVote.getVotesAsMessageBuilder());
+
+                cachedPayload = quorumVotesBuilder.build();
+                cachedPayloadVersion = voteVersion;
+            }
+            payload = cachedPayload;
+        }
+
+        return failureCheckMessage
+                .setQuorumVotesPayload(payload)
+                .setConsensusStrategy(Failuredetector.FailureCheck.ConsensusStrategy.QUORUM);
+    }
+
+    /**
+     * Merges received votes and checks for quorums.
+     *
+     * @param receivedFailureCheckMessage
+     */
+    @Override
+    public void handleReceivedMessage(Failuredetector.FailureCheck receivedFailureCheckMessage) {
+
+        // slots of other memberships are meaningless here
+        Failuredetector.QuorumVotes quorumVotes = receivedFailureCheckMessage.getQuorumVotesPayload();
+        if (quorumVotes.getMembershipEpoch() != replicaSlots.getEpoch() || quorumVotes.getSuspectVotesCount() == 0)
+            return;
+
+        List<Integer> localConsensusSlots = new ArrayList<>();
+        List<Integer> globalConsensusSlots = new ArrayList<>();
+        boolean changeDetected = false;
+
+        synchronized (voteLock) {
+            for (Failuredetector.SuspectVotes suspectVotes : quorumVotes.getSuspectVotesList()) {
+                // votes on myself, this replica is not a peer of itself
+                if (suspectVotes.getSuspectSlot() == mySlot)
+                    continue;
+
+                QuorumVote quorumVote = voteOn(suspectVotes.getSuspectSlot());
+                if (quorumVote == null)
+                    continue;
+
+                int suspicionCount = quorumVote.getSuspicionCount();
+                int decisionCount = quorumVote.getDecisionCount();
+                if (!quorumVote.merge(suspectVotes, votes.length))
+                    continue;
+                changeDetected = true;
+                voteVersion++;
+
+                if (suspicionCount < quorum && quorumVote.getSuspicionCount() >= quorum)
+                    localConsensusSlots.add(quorumVote.getSuspectSlot());
+                if (decisionCount < quorum && quorumVote.getDecisionCount() >= quorum)
+                    globalConsensusSlots.add(quorumVote.getSuspectSlot());
+            }
+        }
+
+        if (changeDetected)
+            votesChanged(localConsensusSlots, globalConsensusSlots);
+    }
+
+    /**
+     * Votes on given replica, created on first vote. Called holding vote lock.
+     *
+     * @param suspectSlot slot of suspected replica
+     * @return votes, null if slot is not valid
+     */
+    private QuorumVote voteOn(int suspectSlot) {
+        if (suspectSlot < 0 || suspectSlot >= votes.length)
+            return null;
+
+        if (votes[suspectSlot] == null) {
+            votes[suspectSlot] = new QuorumVote(suspectSlot, votes.length);
+            votedReplicas.add(votes[suspectSlot]);
+        }
+
+        return votes[suspectSlot];
+    }
+
+    /**
+     * Notifies context about reached consensus, adds own decision votes and disseminates new votes.
+     *
+     * @param localConsensusSlots slots of replicas which reached local consensus
+     * @param globalConsensusSlots slots of replicas which reached global consensus
+     */
+    private void votesChanged(List<Integer> localConsensusSlots, List<Integer> globalConsensusSlots) {
+
+        for (int slot : localConsensusSlots) {
+            failureDetectorContext.setLocalFailureConsensusReachedOnPeerReplica(replicaSlots.replicaIdAt(slot));
+
+            // vote for global consensus
+            boolean globalConsensusAchieved;
+            synchronized (voteLock) {
+                QuorumVote quorumVote = votes[slot];
+                boolean newVote = quorumVote.addDecision(mySlot);
+                if (newVote)
+                    voteVersion++;
+                globalConsensusAchieved = newVote && quorumVote.getDecisionCount() == quorum;
+            }
+            if (globalConsensusAchieved)
+                globalConsensusSlots.add(slot);
+        }
+
+        for (int slot : globalConsensusSlots)
+            failureDetectorContext.setGlobalFailureConsensusReachedOnPeerReplica(replicaSlots.replicaIdAt(slot));
+
+        // spread new votes right away instead of waiting for next periodic message
+        failureDetectorContext.triggerDissemination();
+    }
+
+    /**
+     * Creates vote table and computes quorum.
+     *
+     * @param peerReplicaHashMap list of peer replicas
+     * @param replicaId parent replica ID
+     */
+    @Override
+    public void setReplicas(HashMap<String, PeerReplica> peerReplicaHashMap, String replicaId) {
+        myReplicaID = replicaId;
+
+        // slots are positions in sorted membership, same on every replica
+        replicaSlots = new MembershipDictionary(peerReplicaHashMap.keySet(), replicaId);
+        mySlot = replicaSlots.indexOf(replicaId);
+        votes = new QuorumVote[replicaSlots.size()];
+
+        // majority of all replicas, suspected replica does not vote
+        quorum = configuredQuorum > 0 ? configuredQuorum : replicaSlots.size() / 2 + 1;
+        quorum = Math.max(1, Math.min(quorum, replicaSlots.size() - 1));
+    }
+
+    /**
+     * Votes for given replica being failed.
+     *
+     * @param replicaId failed replica's ID
+     */
+    @Override
+    public void setPeerReplicaAsLocallySuspected(String replicaId) {
+        int slot = replicaSlots.indexOf(replicaId);
+        if (slot < 0 || slot == mySlot)
+            return;
+
+        List<Integer> localConsensusSlots = new ArrayList<>();
+        synchronized (voteLock) {
+            QuorumVote quorumVote = voteOn(slot);
+            if (!quorumVote.addSuspicion(mySlot))
+                return;
+            voteVersion++;
+
+            if (quorumVote.getSuspicionCount() == quorum)
+                localConsensusSlots.add(slot);
+        }
+
+        votesChanged(localConsensusSlots, new ArrayList<Integer>());
+    }
+
+    /**
+     * Sets FailureDetectorContext object.
+     *
+     * @param failureDetectionContext
+     */
+    @Override
+    public void setFailureDetectorContext(FailureDetectorContext failureDetectionContext) {
+        this.failureDetectorContext = failureDetectionContext;
+    }
+
+    /**
+     * Votes are attached to periodic messages too, so lost messages are repaired by next ones.
+     *
+     * @return true
+     */
+    @Override
+    public boolean attachConsensusPayloadToPeriodicSignallingMessages() {
+        return true;
+    }
+
+    public int getQuorum() {
+        return quorum;
+    }
+}
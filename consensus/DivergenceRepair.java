@@ -0,0 +1,76 @@
+package siemens.db.adapt.FailureDetection.consensus;
+
+import java.util.HashMap;
+
+/**
+ * Decides when a digest mismatch with a peer is worth a full state exchange.
+ *
+ * A single mismatch is often just a delta still on its way, e.g. sent to another gossip partner,
+ * so the exchange is done only once the mismatch with the same peer persists over
+ * several consecutive messages without changes, and at most once per interval per peer.
+ */
+public class DivergenceRepair {
+
+    public static final int DEFAULT_REQUIRED_MISMATCHES = 3;
+    public static final int DEFAULT_MIN_INTERVAL_IN_MILLIS = 1000;
+
+    /**
+     * Repair state of one peer.
+     */
+    private static class PeerRepair {
+        int consecutiveMismatches;
+        long lastRepairTime;
+        boolean repairedBefore;
+    }
+
+    private final int requiredMismatches;
+    private final long minIntervalInMillis;
+
+    // < replicaID, repair state >, guarded by this
+    private final HashMap<String, PeerRepair> peerRepairs = new HashMap<>();
+
+    /**
+     * @param requiredMismatches consecutive mismatching messages needed for a repair
+     * @param minIntervalInMillis minimum time between two repairs with the same peer
+     */
+    public DivergenceRepair(int requiredMismatches, int minIntervalInMillis) {
+        this.requiredMismatches = requiredMismatches;
+        this.minIntervalInMillis = minIntervalInMillis;
+    }
+
+    /**
+     * Records digest comparison of a message without changes.
+     *
+     * @param replicaId sender of the message
+     * @param digestDiffers true if sender's digest differs from ours
+     * @return true if full states should be exchanged with the sender now
+     */
+    public synchronized boolean shouldRepair(String replicaId, boolean digestDiffers) {
+        PeerRepair peerRepair = peerRepairs.get(replicaId);
+
+        if (!digestDiffers) {
+            if (peerRepair != null)
+                peerRepair.consecutiveMismatches = 0;
+            return false;
+        }
+
+        if (peerRepair == null) {
+            peerRepair = new PeerRepair();
+            peerRepairs.put(replicaId, peerRepair);
+        }
+
+        peerRepair.consecutiveMismatches++;
+        if (peerRepair.consecutiveMismatches < requiredMismatches)
+            return false;
+
+        long currentTime = System.currentTimeMillis();
+        if (peerRepair.repairedBefore && currentTime - peerRepair.lastRepairTime < minIntervalInMillis)
+            return false;
+
+        peerRepair.consecutiveMismatches = 0;
+        peerRepair.lastRepairTime = currentTime;
+        peerRepair.repairedBefore = true;
+
+        return true;
+    }
+}
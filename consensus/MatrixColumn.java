@@ -1,11 +1,21 @@
 package siemens.db.adapt.FailureDetection.consensus;
 
+import com.google.protobuf.ByteString;
 import siemens.db.adapt.protocol.Failuredetector;
 
-import java.util.HashMap;
-import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * Column of the view matrix, i.e. views of all replicas on one viewed replica.
+ *
+ * Views are stored as a bitset indexed by replica slot (position in sorted membership),
+ * bit set means the viewer considers viewed replica failed.
+ * Merging is done word-wise and consensus is a popcount.
+ *
+ * On the wire the column is either a packed bitmap with one bit per slot or, if only few viewers
+ * suspect the viewed replica, the list of set slots, whichever is smaller.
+ * Columns without any set bit are not sent at all.
+ */
 public class MatrixColumn {
 
     // this is the id of the replica above column
@@ -15,33 +25,41 @@ public class MatrixColumn {
         return viewedReplica;
     }
 
-    // this is the mapping between replicaIDs and their views on viewedReplica
-    private Map<String, Boolean> viewersColumn;
+    // views of all replicas on viewedReplica, bit i is the view of replica in slot i
+    private final long[] viewerBits;
+
+    // number of replicas, i.e. number of valid bits
+    private final int replicaCount;
+
+    // slot of viewed replica and slot of the replica this matrix view belongs to
+    private final int viewedSlot;
+    private final int mySlot;
 
     private boolean consensusAchieved;
 
+    // version of the matrix when this column changed last, 0 if it never changed
+    private long version;
+
     // id of the replica this matrix view belongs to
     private String myReplicaId;
 
     /**
-     * Constructor takes the id of viewed replica.
+     * Constructor takes the id and slot of viewed replica.
      *
      * @param viewedReplica viewed replica id.
+     * @param myReplicaId id of the replica this matrix view belongs to
+     * @param viewedSlot slot of viewed replica
+     * @param mySlot slot of the replica this matrix view belongs to
+     * @param replicaCount number of replicas, own replica included
      */
-    MatrixColumn (String viewedReplica, String myReplicaId) {
+    MatrixColumn(String viewedReplica, String myReplicaId, int viewedSlot, int mySlot, int replicaCount) {
         this.viewedReplica = viewedReplica;
-        this.viewersColumn = new HashMap<>();
-        this.consensusAchieved = false;
         this.myReplicaId = myReplicaId;
-    }
-
-    /**
-     * This method adds a new viewer to the map.
-     *
-     * @param viewerId id of the viewer.
-     */
-    public void addViewer(String viewerId) {
-        viewersColumn.put(viewerId, false);
+        this.viewedSlot = viewedSlot;
+        this.mySlot = mySlot;
+        this.replicaCount = replicaCount;
+        this.viewerBits = new long[(replicaCount + 63) >>> 6];
+        this.consensusAchieved = false;
     }
 
     /**
@@ -51,73 +69,144 @@ public class MatrixColumn {
      * @return message builder
      */
     public Failuredetector.MatrixColumn.Builder getColumnAsMessageBuilder() {
+        int bitmapSize = (replicaCount + 7) >>> 3;
+
+        // size of set slots as varints
+        int sparseSize = 0;
+        for (int w = 0; w < viewerBits.length; w++) {
+            for (long bits = viewerBits[w]; bits != 0; bits &= bits - 1) {
+                int slot = (w << 6) + Long.numberOfTrailingZeros(bits);
+                sparseSize += slot < (1 << 7) ? 1 : slot < (1 << 14) ? 2 : 3;
+            }
+        }
+
+        if (sparseSize < bitmapSize) {
+            Failuredetector.MatrixColumn.Builder columnBuilder = Failuredetector.MatrixColumn.newBuilder()
+                    .setViewedReplica(viewedReplica);
+            for (int w = 0; w < viewerBits.length; w++) {
+                for (long bits = viewerBits[w]; bits != 0; bits &= bits - 1)
+                    columnBuilder.addSetViewerSlot((w << 6) + Long.numberOfTrailingZeros(bits));
+            }
+
+            return columnBuilder;
+        }
+
+        // little endian, bit i of the column is bit (i & 7) of byte (i >> 3)
+        byte[] bitmap = new byte[bitmapSize];
+        for (int i = 0; i < bitmap.length; i++)
+            bitmap[i] = (byte) (viewerBits[i >>> 3] >>> ((i & 7) << 3));
 
         return Failuredetector.MatrixColumn.newBuilder()
                 .setViewedReplica(viewedReplica)
-                .putAllMatrixColumnEntry(viewersColumn);
+                .setViewerBitmap(ByteString.copyFrom(bitmap));
     }
 
     /**
-     * This method is used to merge two matrix columns.
+     * Reads one word of a received packed bitmap.
      *
-     * It goes through the received column and replaces or ORs with existing column.
-     *
-     * @return true if consensus achieved, false otherwise.
+     * @param bitmap received bitmap
+     * @param wordIndex index of the word
+     * @return word, missing bytes are 0
      */
-    public boolean mergeColumn(Failuredetector.MatrixColumn matrixColumn, String senderReplicaId,
-                               AtomicBoolean changeDetected) {
-
-        consensusAchieved = false;
-        int consensusCounter = 0;
-
-        // go through received map
-        for (Map.Entry<String, Boolean> mapEntry : matrixColumn.getMatrixColumnEntryMap().entrySet()) {
-
+    private static long readWord(ByteString bitmap, int wordIndex) {
+        long word = 0;
+        int end = Math.min(bitmap.size(), (wordIndex + 1) << 3);
 
+        for (int i = wordIndex << 3; i < end; i++)
+            word |= (bitmap.byteAt(i) & 0xFFL) << ((i & 7) << 3);
 
+        return word;
+    }
 
-            // if it is sender's own view then replace entire row
-            if (mapEntry.getKey().equals(senderReplicaId)) {
+    /**
+     * Returns mask of the bits of given word which belong to a slot.
+     *
+     * @param wordIndex index of the word
+     * @return mask
+     */
+    private long validBits(int wordIndex) {
+        int bitsInWord = replicaCount - (wordIndex << 6);
 
-                // check for change
-                if (!viewersColumn.get(mapEntry.getKey()).equals(mapEntry.getValue()))
-                    changeDetected.set(true);
+        return bitsInWord >= 64 ? -1L : (1L << bitsInWord) - 1;
+    }
 
-                // replace
-                viewersColumn.put(mapEntry.getKey(), mapEntry.getValue());
+    /**
+     * This method is used to merge two matrix columns.
+     *
+     * It replaces sender's own view and ORs all other views with existing column,
+     * except the view of this replica.
+     *
+     * @return true if consensus achieved, false otherwise.
+     */
+    public boolean mergeColumn(Failuredetector.MatrixColumn matrixColumn, int senderSlot,
+                               AtomicBoolean changeDetected) {
 
-            }
-            // OR all other rows, except my own view
-            else if (!mapEntry.getKey().equals(myReplicaId)) {
+        ByteString bitmap = matrixColumn.getViewerBitmap();
+        if (bitmap.isEmpty())
+            mergeSetSlots(matrixColumn, senderSlot, changeDetected);
+        else
+            mergeBitmap(bitmap, senderSlot, changeDetected);
 
-                // check for change
-                if (!viewersColumn.get(mapEntry.getKey())
-                        .equals(mapEntry.getValue() || viewersColumn.get(mapEntry.getKey())))
-                    changeDetected.set(true);
+        // viewed replica itself can not complete consensus about itself
+        consensusAchieved = senderSlot != viewedSlot && checkConsensus();
 
-                // OR
-                viewersColumn.put(mapEntry.getKey(),
-                        mapEntry.getValue() || viewersColumn.get(mapEntry.getKey()));
+        return consensusAchieved;
+    }
 
+    /**
+     * Merges a column received as list of set slots, without building a dense column.
+     *
+     * @param matrixColumn received column
+     * @param senderSlot slot of sender
+     * @param changeDetected set to true if column changes
+     */
+    private void mergeSetSlots(Failuredetector.MatrixColumn matrixColumn, int senderSlot,
+                               AtomicBoolean changeDetected) {
+        boolean senderViewSet = false;
+
+        // OR all views, keep my own view
+        for (int i = 0; i < matrixColumn.getSetViewerSlotCount(); i++) {
+            int slot = matrixColumn.getSetViewerSlot(i);
+            if (slot < 0 || slot >= replicaCount)
+                continue;
+
+            if (slot == senderSlot)
+                senderViewSet = true;
+            if (slot != mySlot && (viewerBits[slot >>> 6] & (1L << slot)) == 0) {
+                viewerBits[slot >>> 6] |= 1L << slot;
+                changeDetected.set(true);
             }
-
-
-            if (viewersColumn.get(mapEntry.getKey()) && !senderReplicaId.equals(viewedReplica))
-                consensusCounter++;
-
         }
 
-        // check consensus
-        if (consensusCounter >= viewersColumn.size() - 1) {
-            consensusAchieved = true;
-            //System.out.println(myReplicaId + " : " + viewedReplica + " consensusAchieved");
+        // replace sender's view
+        if (!senderViewSet && senderSlot != mySlot && (viewerBits[senderSlot >>> 6] & (1L << senderSlot)) != 0) {
+            viewerBits[senderSlot >>> 6] &= ~(1L << senderSlot);
+            changeDetected.set(true);
         }
-
-
-        return consensusAchieved;
-        //return changeDetected;
     }
 
+    /**
+     * Merges a column received as packed bitmap, word by word.
+     *
+     * @param bitmap received bitmap
+     * @param senderSlot slot of sender
+     * @param changeDetected set to true if column changes
+     */
+    private void mergeBitmap(ByteString bitmap, int senderSlot, AtomicBoolean changeDetected) {
+
+        for (int w = 0; w < viewerBits.length; w++) {
+            long received = readWord(bitmap, w) & validBits(w);
+            long senderMask = senderSlot >>> 6 == w ? 1L << senderSlot : 0;
+            long myMask = mySlot >>> 6 == w ? 1L << mySlot : 0;
+
+            // replace sender's view, OR all other views, keep my own view
+            long merged = ((viewerBits[w] & ~senderMask) | received) & ~myMask | (viewerBits[w] & myMask);
+            if (merged != viewerBits[w]) {
+                viewerBits[w] = merged;
+                changeDetected.set(true);
+            }
+        }
+    }
 
     /**
      * This method sets viewed replica as failed for the owner replica
@@ -127,19 +216,26 @@ public class MatrixColumn {
      *
      */
     public boolean setFailed() {
-        viewersColumn.put(myReplicaId, true);
-        consensusAchieved = false;
+        viewerBits[mySlot >>> 6] |= 1L << mySlot;
+        consensusAchieved = checkConsensus();
+
+        return consensusAchieved;
+    }
 
-        // check for consensus
+    /**
+     * Consensus is achieved if all replicas but the viewed one consider it failed.
+     *
+     * @return true if consensus has been achieved
+     */
+    private boolean checkConsensus() {
         int consensusCounter = 0;
-        for (Map.Entry<String, Boolean> entry : viewersColumn.entrySet()) {
-            if (entry.getValue() && !viewedReplica.equals(entry.getKey()))
-                consensusCounter++;
-        }
-        if (consensusCounter >= viewersColumn.size() - 1)
-            consensusAchieved = true;
 
-        return consensusAchieved;
+        for (int w = 0; w < viewerBits.length; w++)
+            consensusCounter += Long.bitCount(viewerBits[w]);
+        if ((viewerBits[viewedSlot >>> 6] & (1L << viewedSlot)) != 0)
+            consensusCounter--;
+
+        return consensusCounter >= replicaCount - 1;
     }
 
     /**
@@ -149,9 +245,35 @@ public class MatrixColumn {
      *
      */
     public boolean getFailed() {
-        return viewersColumn.get(myReplicaId);
+        return (viewerBits[mySlot >>> 6] & (1L << mySlot)) != 0;
+    }
+
+
+    public long getVersion() {
+        return version;
     }
 
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    /**
+     * Returns hash of the column. Sum of column digests is the digest of the matrix,
+     * equal on replicas whose matrices converged.
+     *
+     * @return digest
+     */
+    public long getDigest() {
+        long digest = (viewedSlot + 1) * 0x9E3779B97F4A7C15L;
+
+        for (long word : viewerBits) {
+            digest ^= word;
+            digest *= 0x100000001b3L;
+            digest ^= digest >>> 29;
+        }
+
+        return digest;
+    }
 
     /**
      * Temporary method for debug.
@@ -0,0 +1,98 @@
+package siemens.db.adapt.FailureDetection.consensus;
+
+import siemens.db.adapt.protocol.Failuredetector;
+
+/**
+ * State of one replica in the membership CRDT: incarnation and votes on that incarnation.
+ *
+ * Entries are ordered by incarnation first, votes of the same incarnation are unioned.
+ * Merge is the join of this order, so it is idempotent, commutative and associative.
+ * A replica refutes suspicion by bumping its incarnation, which drops all votes on the old one.
+ */
+public class MembershipEntry {
+
+    private final int replicaSlot;
+    private final int replicaCount;
+
+    private long incarnation;
+    private QuorumVote votes;
+
+    // version of the state when this entry changed last
+    private long version;
+
+    /**
+     * Creates entry with incarnation 0 and no votes.
+     *
+     * @param replicaSlot slot of the replica
+     * @param replicaCount number of replicas, own replica included
+     */
+    MembershipEntry(int replicaSlot, int replicaCount) {
+        this.replicaSlot = replicaSlot;
+        this.replicaCount = replicaCount;
+        this.incarnation = 0;
+        this.votes = new QuorumVote(replicaSlot, replicaCount);
+    }
+
+    public long getIncarnation() {
+        return incarnation;
+    }
+
+    public QuorumVote getVotes() {
+        return votes;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    /**
+     * Joins received entry into this entry.
+     *
+     * @param received received entry of the same replica
+     * @return true if this entry changed
+     */
+    public boolean merge(Failuredetector.SuspectVotes received) {
+        // stale incarnation, votes are obsolete
+        if (received.getIncarnation() < incarnation)
+            return false;
+
+        if (received.getIncarnation() > incarnation) {
+            incarnation = received.getIncarnation();
+            votes = new QuorumVote(replicaSlot, replicaCount);
+            votes.merge(received, replicaCount);
+            return true;
+        }
+
+        return votes.merge(received, replicaCount);
+    }
+
+    /**
+     * Refutes suspicion on own replica by moving to the next incarnation.
+     */
+    public void refute() {
+        incarnation++;
+        votes = new QuorumVote(replicaSlot, replicaCount);
+    }
+
+    /**
+     * Returns hash of incarnation and votes. Sum of entry digests is the digest of the state.
+     *
+     * @return digest
+     */
+    public long getDigest() {
+        return votes.getDigest() + incarnation * 0xC2B2AE3D27D4EB4FL;
+    }
+
+    /**
+     * Builds SuspectVotes protobuf message of this entry.
+     *
+     * @return message builder
+     */
+    public Failuredetector.SuspectVotes.Builder getEntryAsMessageBuilder() {
+        return votes.getVotesAsMessageBuilder().setIncarnation(incarnation);
+    }
+}
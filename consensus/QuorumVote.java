@@ -0,0 +1,154 @@
+package siemens.db.adapt.FailureDetection.consensus;
+
+import siemens.db.adapt.protocol.Failuredetector;
+
+/**
+ * Votes of all replicas on one suspected replica.
+ *
+ * Suspicion votes come from replicas which locally suspect the replica,
+ * decision votes from replicas which reached local consensus on it.
+ * Voters are kept as bitsets indexed by replica slot with running counts,
+ * so adding a vote and checking a quorum is constant time.
+ */
+public class QuorumVote {
+
+    // slot of the suspected replica
+    private final int suspectSlot;
+
+    private final long[] suspicionVoters;
+    private int suspicionCount;
+
+    private final long[] decisionVoters;
+    private int decisionCount;
+
+    /**
+     * Constructor takes the slot of suspected replica.
+     *
+     * @param suspectSlot slot of suspected replica
+     * @param replicaCount number of replicas, own replica included
+     */
+    QuorumVote(int suspectSlot, int replicaCount) {
+        this.suspectSlot = suspectSlot;
+        this.suspicionVoters = new long[(replicaCount + 63) >>> 6];
+        this.decisionVoters = new long[(replicaCount + 63) >>> 6];
+    }
+
+    public int getSuspectSlot() {
+        return suspectSlot;
+    }
+
+    public int getSuspicionCount() {
+        return suspicionCount;
+    }
+
+    public int getDecisionCount() {
+        return decisionCount;
+    }
+
+    /**
+     * Adds suspicion vote of given replica. Suspected replica can not vote on itself.
+     *
+     * @param voterSlot slot of voter
+     * @return true if vote is new
+     */
+    public boolean addSuspicion(int voterSlot) {
+        if (voterSlot == suspectSlot || !setBit(suspicionVoters, voterSlot))
+            return false;
+
+        suspicionCount++;
+        return true;
+    }
+
+    /**
+     * Adds decision vote of given replica. Suspected replica can not vote on itself.
+     *
+     * @param voterSlot slot of voter
+     * @return true if vote is new
+     */
+    public boolean addDecision(int voterSlot) {
+        if (voterSlot == suspectSlot || !setBit(decisionVoters, voterSlot))
+            return false;
+
+        decisionCount++;
+        return true;
+    }
+
+    /**
+     * Adds all votes of a received message.
+     *
+     * @param suspectVotes received votes
+     * @param replicaCount number of replicas, votes of unknown slots are ignored
+     * @return true if at least one vote is new
+     */
+    public boolean merge(Failuredetector.SuspectVotes suspectVotes, int replicaCount) {
+        boolean changed = false;
+
+        for (int i = 0; i < suspectVotes.getSuspicionVoterSlotCount(); i++) {
+            int voterSlot = suspectVotes.getSuspicionVoterSlot(i);
+            if (voterSlot >= 0 && voterSlot < replicaCount)
+                changed |= addSuspicion(voterSlot);
+        }
+        for (int i = 0; i < suspectVotes.getDecisionVoterSlotCount(); i++) {
+            int voterSlot = suspectVotes.getDecisionVoterSlot(i);
+            if (voterSlot >= 0 && voterSlot < replicaCount)
+                changed |= addDecision(voterSlot);
+        }
+
+        return changed;
+    }
+
+    /**
+     * Builds SuspectVotes protobuf message, voters as lists of slots.
+     *
+     * @return message builder
+     */
+    public Failuredetector.SuspectVotes.Builder getVotesAsMessageBuilder() {
+        Failuredetector.SuspectVotes.Builder suspectVotesBuilder = Failuredetector.SuspectVotes.newBuilder()
+                .setSuspectSlot(suspectSlot);
+
+        for (int w = 0; w < suspicionVoters.length; w++) {
+            for (long bits = suspicionVoters[w]; bits != 0; bits &= bits - 1)
+                suspectVotesBuilder.addSuspicionVoterSlot((w << 6) + Long.numberOfTrailingZeros(bits));
+        }
+        for (int w = 0; w < decisionVoters.length; w++) {
+            for (long bits = decisionVoters[w]; bits != 0; bits &= bits - 1)
+                suspectVotesBuilder.addDecisionVoterSlot((w << 6) + Long.numberOfTrailingZeros(bits));
+        }
+
+        return suspectVotesBuilder;
+    }
+
+    /**
+     * Returns hash of all votes.
+     *
+     * @return digest
+     */
+    public long getDigest() {
+        long digest = (suspectSlot + 1) * 0x9E3779B97F4A7C15L;
+
+        for (long word : suspicionVoters) {
+            digest ^= word;
+            digest *= 0x100000001b3L;
+        }
+        for (long word : decisionVoters) {
+            digest ^= word;
+            digest *= 0x100000001b3L;
+        }
+
+        return digest ^ (digest >>> 29);
+    }
+
+    /**
+     * Sets a bit.
+     *
+     * @return true if bit was not set before
+     */
+    private static boolean setBit(long[] bits, int index) {
+        long mask = 1L << index;
+        if ((bits[index >>> 6] & mask) != 0)
+            return false;
+
+        bits[index >>> 6] |= mask;
+        return true;
+    }
+}
@@ -1,9 +1,19 @@
 package siemens.db.adapt.FailureDetection.dissemination.BestEffordBroadcastDissemination;
 
 import siemens.db.adapt.FailureDetection.FailureDetectorContext;
+import siemens.db.adapt.FailureDetection.dissemination.DatagramBatcher;
+import siemens.db.adapt.FailureDetection.dissemination.DatagramSender;
 import siemens.db.adapt.FailureDetection.dissemination.DisseminationStrategy;
+import siemens.db.adapt.FailureDetection.dissemination.ReceivePipeline;
 import siemens.db.adapt.protocol.Failuredetector;
 import siemens.db.adapt.utils.PeerReplica;
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.StandardProtocolFamily;
+import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Timer;
 import java.util.TimerTask;
@@ -16,8 +26,20 @@ import java.util.concurrent.Executors;
  */
 public class BestEffortBroadcastDissemination implements DisseminationStrategy {
 
+    // multicast group of failure detectors
+    static final String MULTICAST_GROUP = "230.0.0.1";
+
     private ExecutorService executorService;
+    private DatagramSender datagramSender;
+    // coalesces messages to the group, null if batching is disabled
+    private DatagramBatcher datagramBatcher;
+    private int batchFlushWindowInMillis;
+    private InetSocketAddress groupAddress;
+    // name of interface to send to and join the group on, null for the one the OS routes the group to
+    private String multicastInterfaceName;
+    private volatile NetworkInterface multicastInterface;
     private FailureDetectorMulticastListener failureDetectorMulticastListener;
+    private ReceivePipeline receivePipeline;
     private FailureDetectorContext failureDetectorContext;
     private Timer disseminationTimer;
     private int disseminationTime;
@@ -29,8 +51,9 @@ public class BestEffortBroadcastDissemination implements DisseminationStrategy {
      */
     public BestEffortBroadcastDissemination() {
 
-        // initialize listener
-        failureDetectorMulticastListener = new FailureDetectorMulticastListener(this);
+        // initialize listener and its receive pipeline
+        receivePipeline = new ReceivePipeline("multicast", this);
+        failureDetectorMulticastListener = new FailureDetectorMulticastListener(this, receivePipeline);
 
         // create executor
         executorService = Executors.newFixedThreadPool(1);
@@ -58,6 +81,41 @@ public class BestEffortBroadcastDissemination implements DisseminationStrategy {
         this.disseminationTime = disseminationTime;
     }
 
+    /**
+     * Enables coalescing of messages sent within given flush window into one datagram.
+     * Must be called before start.
+     *
+     * @param batchFlushWindowInMillis flush window in ms, 0 disables batching
+     * @return this dissemination strategy
+     */
+    public BestEffortBroadcastDissemination setBatchFlushWindow(int batchFlushWindowInMillis) {
+        this.batchFlushWindowInMillis = batchFlushWindowInMillis;
+
+        return this;
+    }
+
+    /**
+     * Sets network interface used both to send to and to join the multicast group.
+     * Must be called before start.
+     *
+     * @param multicastInterfaceName interface name, e.g. eth0, null for the one the OS routes the group to
+     * @return this dissemination strategy
+     */
+    public BestEffortBroadcastDissemination setMulticastInterface(String multicastInterfaceName) {
+        this.multicastInterfaceName = multicastInterfaceName;
+
+        return this;
+    }
+
+    /**
+     * Returns interface the group is sent to and joined on, resolved by start.
+     *
+     * @return network interface, null if it could not be resolved
+     */
+    NetworkInterface getMulticastInterface() {
+        return multicastInterface;
+    }
+
     @Override
     public void setPeerReplicaAsLocallySuspected(String replicaID) {
         // not needed for broadcast dissemination
@@ -68,16 +126,36 @@ public class BestEffortBroadcastDissemination implements DisseminationStrategy {
         // not needed for broadcast dissemination
     }
 
+    @Override
+    public void setPeerReplicaAsAlive(String replicaID) {
+        // not needed for broadcast dissemination
+    }
+
     /**
-     * Called by the listener to handle received message.
+     * Called by the receive pipeline to handle received message.
      * Passes the received message to FailureDetectorContext.
      *
      * @param failureCheck received message
+     * @param receiveTimeMillis time the datagram was drained from the socket
      */
     @Override
-    public void handleReceivedMessage(Failuredetector.FailureCheck failureCheck) {
+    public void handleReceivedMessage(final Failuredetector.FailureCheck failureCheck, final long receiveTimeMillis) {
 
-        failureDetectorContext.handleReceivedMessage(failureCheck);
+        // hand over to event loop if there is one
+        failureDetectorContext.execute(new Runnable() {
+            public void run() {
+                failureDetectorContext.handleReceivedMessage(failureCheck, receiveTimeMillis);
+            }
+        });
+    }
+
+    /**
+     * Returns receive pipeline, e.g. to read its drop counters.
+     *
+     * @return receive pipeline
+     */
+    public ReceivePipeline getReceivePipeline() {
+        return receivePipeline;
     }
 
     /**
@@ -97,21 +175,92 @@ public class BestEffortBroadcastDissemination implements DisseminationStrategy {
     public void startDisseminationTimer() {
         disseminationTimer.schedule(new TimerTask(){
             public void run() {
-                disseminate();
+                failureDetectorContext.execute(new Runnable() {
+                    public void run() {
+                        disseminate();
+                    }
+                });
                 startDisseminationTimer();
             }
         }, disseminationTime);
     }
 
     /**
-     * Starts listener and dissemination timer.
+     * Opens sending channel, starts listener and dissemination timer.
      */
     @Override
     public void start(FailureDetectorContext failureDetectorContext, HashMap<String, PeerReplica> peerReplicaHashMap, String myReplicaID) {
+        groupAddress = new InetSocketAddress(MULTICAST_GROUP, failureDetectorContext.getFailureDetectorListeningPort());
+        try {
+            multicastInterface = resolveMulticastInterface();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        try {
+            datagramSender = new DatagramSender(StandardProtocolFamily.INET);
+            // send on the interface the listener joins on
+            if (multicastInterface != null)
+                datagramSender.setMulticastInterface(multicastInterface);
+            datagramSender.setMembershipDictionary(failureDetectorContext.getMembershipDictionary());
+            if (batchFlushWindowInMillis > 0)
+                datagramBatcher = new DatagramBatcher(datagramSender, batchFlushWindowInMillis);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        receivePipeline.setMembershipDictionary(failureDetectorContext.getMembershipDictionary());
+        receivePipeline.start();
         failureDetectorMulticastListener.start();
         startDisseminationTimer();
     }
 
+    /**
+     * Returns configured interface, otherwise the one the OS routes the group to,
+     * i.e. the one a socket without IP_MULTICAST_IF would send on.
+     * If there is no route to the group, first multicast capable interface which is up, loopback only if there is no other.
+     *
+     * @return network interface
+     * @throws IOException if no interface can be found
+     */
+    private NetworkInterface resolveMulticastInterface() throws IOException {
+        if (multicastInterfaceName != null) {
+            NetworkInterface networkInterface = NetworkInterface.getByName(multicastInterfaceName);
+            if (networkInterface == null)
+                throw new SocketException("Unknown network interface " + multicastInterfaceName);
+
+            return networkInterface;
+        }
+
+        // local address the routing table picks for the group
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.connect(groupAddress);
+            NetworkInterface networkInterface = NetworkInterface.getByInetAddress(socket.getLocalAddress());
+            if (networkInterface != null)
+                return networkInterface;
+        } catch (SocketException e) {
+            // no route to the group
+        }
+
+        NetworkInterface loopbackInterface = null;
+
+        Enumeration<NetworkInterface> networkInterfaces = NetworkInterface.getNetworkInterfaces();
+        while (networkInterfaces.hasMoreElements()) {
+            NetworkInterface networkInterface = networkInterfaces.nextElement();
+            if (!networkInterface.isUp() || !networkInterface.supportsMulticast())
+                continue;
+
+            if (!networkInterface.isLoopback())
+                return networkInterface;
+            loopbackInterface = networkInterface;
+        }
+
+        if (loopbackInterface == null)
+            throw new SocketException("No multicast capable network interface");
+
+        return loopbackInterface;
+    }
+
     /**
      * Stops listener and dissemination.
      *
@@ -119,7 +268,12 @@ public class BestEffortBroadcastDissemination implements DisseminationStrategy {
      */
     public boolean stop() {
         failureDetectorMulticastListener.stopListening();
+        receivePipeline.stop();
         disseminationTimer.cancel();
+        if (datagramBatcher != null)
+            datagramBatcher.flushAll();
+        if (datagramSender != null)
+            datagramSender.close();
 
 
         return true;
@@ -142,8 +296,7 @@ public class BestEffortBroadcastDissemination implements DisseminationStrategy {
     public void disseminate() {
 
         // disseminate to all replicas
-        executorService.execute(new MulticastDisseminationRunnable(failureDetectorContext.getPeriodicDisseminationMessage(),
-                failureDetectorContext.getFailureDetectorListeningPort()));
+        sendToGroup(failureDetectorContext.getPeriodicDisseminationMessage());
     }
 
     /**
@@ -154,8 +307,26 @@ public class BestEffortBroadcastDissemination implements DisseminationStrategy {
     @Override
     public void disseminateSpecificMessage(Failuredetector.FailureCheck.Builder failureCheckMessage) {
         // disseminate to all replicas
-        executorService.execute(new MulticastDisseminationRunnable(failureCheckMessage,
-                failureDetectorContext.getFailureDetectorListeningPort()));
+        sendToGroup(failureCheckMessage);
+    }
+
+    /**
+     * Sends message to multicast group,
+     * either added to the group batch or by an executor thread.
+     *
+     * @param failureCheckMessage message
+     */
+    private void sendToGroup(Failuredetector.FailureCheck.Builder failureCheckMessage) {
+        if (datagramBatcher == null) {
+            executorService.execute(new MulticastDisseminationRunnable(datagramSender, failureCheckMessage, groupAddress));
+            return;
+        }
+
+        try {
+            datagramBatcher.send(groupAddress, failureCheckMessage.build());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
 }
@@ -1,28 +1,46 @@
 package siemens.db.adapt.FailureDetection.dissemination.BestEffordBroadcastDissemination;
 
-import siemens.db.adapt.protocol.Failuredetector;
+import siemens.db.adapt.FailureDetection.dissemination.ReceivePipeline;
 
 import java.io.IOException;
 import java.net.*;
-
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.MembershipKey;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+/**
+ * Receives multicast messages on a non-blocking datagram channel.
+ *
+ * Listener thread only drains the socket into preallocated buffers of the ReceivePipeline,
+ * decoding and processing run on pipeline threads, so the socket is drained even during long consensus work.
+ */
 public class FailureDetectorMulticastListener extends Thread {
 
-    private boolean runFlag;
+    // max time the selector blocks, so stopListening takes effect
+    private static final int SELECT_TIMEOUT_IN_MILLIS = 100;
+
+    private volatile boolean runFlag;
     //private int FDPort;
     //private String myReplicaId;
     private BestEffortBroadcastDissemination broadcastDisseminator;
+    private ReceivePipeline receivePipeline;
 
     /**
      * Constructor gets port number to listen to.
      *
      * @param broadcastDisseminator broadcastDisseminator.
+     * @param receivePipeline pipeline which decodes and processes received datagrams
      */
-    FailureDetectorMulticastListener(BestEffortBroadcastDissemination broadcastDisseminator) {
+    FailureDetectorMulticastListener(BestEffortBroadcastDissemination broadcastDisseminator,
+                                     ReceivePipeline receivePipeline) {
         runFlag = true;
         //FDPort = port;
         //this.myReplicaId = myReplicaId;
         //this.failureDetector = failureDetector;
         this.broadcastDisseminator = broadcastDisseminator;
+        this.receivePipeline = receivePipeline;
     }
 
     public boolean isRunning() {
@@ -41,36 +59,49 @@ public class FailureDetectorMulticastListener extends Thread {
     }
 
     /**
-     * Receives the message and passes it to broadcastDisseminator.
+     * Receives datagrams and passes them to the receive pipeline of broadcastDisseminator.
      */
     @Override
     public void run() {
 
-        try {
-            MulticastSocket socket = new MulticastSocket(broadcastDisseminator.getFailureDetectorListeningPort());
-            InetAddress address = InetAddress.getByName("230.0.0.1");
-            socket.joinGroup(address);
-
-            DatagramPacket packet;
+        try (DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET);
+             Selector selector = Selector.open()) {
 
+            // join on the interface the disseminator sends on
+            NetworkInterface multicastInterface = broadcastDisseminator.getMulticastInterface();
+            if (multicastInterface == null)
+                throw new SocketException("No network interface to join multicast group on");
 
-            while (runFlag) {
-                byte[] buf = new byte[65000];
-                packet = new DatagramPacket(buf, buf.length);
-                socket.receive(packet);
-
-                byte[] packetData = new byte[packet.getLength()];
-                System.arraycopy(packet.getData(), 0, packetData, 0, packet.getLength());
-                //packetData = packet.getData();
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            channel.bind(new InetSocketAddress(broadcastDisseminator.getFailureDetectorListeningPort()));
+            MembershipKey membershipKey = channel.join(
+                    InetAddress.getByName(BestEffortBroadcastDissemination.MULTICAST_GROUP), multicastInterface);
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ);
 
+            ByteBuffer buffer = receivePipeline.acquireBuffer();
 
-                //Generic.FailureCheck parsedMessage = Generic.FailureCheck.parseFrom(trim(packet.getData()));
-                Failuredetector.FailureCheck parsedMessage = Failuredetector.FailureCheck.parseFrom(packetData);
-                broadcastDisseminator.handleReceivedMessage(parsedMessage);
+            while (runFlag) {
+                try {
+                    if (selector.select(SELECT_TIMEOUT_IN_MILLIS) == 0)
+                        continue;
+                    selector.selectedKeys().clear();
+
+                    // drain all pending datagrams, decoding and processing is done by pipeline
+                    while (channel.receive(buffer) != null) {
+                        buffer.flip();
+                        receivePipeline.submit(buffer);
+                        buffer = receivePipeline.acquireBuffer();
+                    }
+
+                } catch (IOException e) {
+                    // transient receive error, keep listening
+                    e.printStackTrace();
+                    buffer.clear();
+                }
             }
 
-            socket.leaveGroup(address);
-            socket.close();
+            membershipKey.drop();
 
         } catch (IOException e) {
             e.printStackTrace();
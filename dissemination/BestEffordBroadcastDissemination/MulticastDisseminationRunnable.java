@@ -1,34 +1,24 @@
 package siemens.db.adapt.FailureDetection.dissemination.BestEffordBroadcastDissemination;
 
+import siemens.db.adapt.FailureDetection.dissemination.DatagramSender;
 import siemens.db.adapt.protocol.Failuredetector;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
-import java.net.SocketException;
+import java.net.InetSocketAddress;
 
 /**
  * This class disseminates messages in multicast way.
  */
-public class MulticastDisseminationRunnable extends Thread {
+public class MulticastDisseminationRunnable implements Runnable {
 
     private Failuredetector.FailureCheck.Builder failureCheck;
-    protected DatagramSocket socket = null;
-    protected BufferedReader in = null;
-    private int FDListeningPort;
+    private DatagramSender datagramSender;
+    private InetSocketAddress groupAddress;
 
-    MulticastDisseminationRunnable(Failuredetector.FailureCheck.Builder failureCheck, int FDListeningPort) {
+    MulticastDisseminationRunnable(DatagramSender datagramSender, Failuredetector.FailureCheck.Builder failureCheck,
+                                   InetSocketAddress groupAddress) {
+        this.datagramSender = datagramSender;
         this.failureCheck = failureCheck;
-        this.FDListeningPort = FDListeningPort;
-
-        try {
-
-            socket = new DatagramSocket();
-
-        } catch (SocketException e) {
-            e.printStackTrace();
-        }
+        this.groupAddress = groupAddress;
     }
 
     @Override
@@ -37,14 +27,8 @@ public class MulticastDisseminationRunnable extends Thread {
         Failuredetector.FailureCheck update = failureCheck.build();
 
         try {
-            byte[] buf = new byte[65000];
-
-            buf = update.toByteArray();
-
-            // send
-            InetAddress group = InetAddress.getByName("230.0.0.1");
-            DatagramPacket packet = new DatagramPacket(buf, buf.length, group, FDListeningPort);
-            socket.send(packet);
+            // send over shared channel
+            datagramSender.send(groupAddress, update);
 
         } catch (IOException e) {
             e.printStackTrace();
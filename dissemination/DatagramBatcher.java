@@ -0,0 +1,215 @@
+package siemens.db.adapt.FailureDetection.dissemination;
+
+import com.google.protobuf.CodedOutputStream;
+import siemens.db.adapt.FailureDetection.failuretrigger.HashedWheelTimer;
+import siemens.db.adapt.FailureDetection.failuretrigger.WheelTimeout;
+import siemens.db.adapt.protocol.Failuredetector;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Coalesces messages sent to the same destination within a short flush window into one datagram.
+ *
+ * Batch datagram layout: marker byte 0x00, then every message prefixed with its length as varint.
+ * Serialized FailureCheck messages never start with 0x00 (field number 0 is invalid in protobuf),
+ * so receivers tell batches from single messages by the first byte.
+ * A batch holding only one message is sent as a plain message.
+ *
+ * Batch is flushed when flush window expires or when the next message would exceed max datagram size,
+ * e.g. path MTU, so bursts during suspicion events cost one datagram per destination.
+ */
+public class DatagramBatcher {
+
+    // first byte of a batch datagram
+    public static final byte BATCH_MARKER = 0;
+    // IPv4 over ethernet MTU without IP and UDP headers
+    public static final int DEFAULT_MAX_BATCH_SIZE = 1472;
+
+    private final DatagramSender datagramSender;
+    private final HashedWheelTimer wheelTimer;
+    private final int flushWindowInMillis;
+    private final int maxBatchSize;
+    private final ConcurrentHashMap<InetSocketAddress, OutboundBatch> batches;
+
+    /**
+     * Creates batcher with default max batch size.
+     *
+     * @param datagramSender sender used to flush batches
+     * @param flushWindowInMillis max time a message waits for other messages to the same destination
+     */
+    public DatagramBatcher(DatagramSender datagramSender, int flushWindowInMillis) {
+        this(datagramSender, flushWindowInMillis, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    /**
+     * Creates batcher.
+     *
+     * @param datagramSender sender used to flush batches
+     * @param flushWindowInMillis max time a message waits for other messages to the same destination
+     * @param maxBatchSize max size of a batch datagram in bytes
+     */
+    public DatagramBatcher(DatagramSender datagramSender, int flushWindowInMillis, int maxBatchSize) {
+        this.datagramSender = datagramSender;
+        this.wheelTimer = HashedWheelTimer.getSharedInstance();
+        this.flushWindowInMillis = flushWindowInMillis;
+        this.maxBatchSize = maxBatchSize;
+        this.batches = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Adds message to the batch of given destination.
+     * Messages which do not fit into a batch on their own are sent immediately.
+     *
+     * @param address destination
+     * @param failureCheck message
+     * @throws IOException if a datagram can not be sent
+     */
+    public void send(InetSocketAddress address, Failuredetector.FailureCheck failureCheck) throws IOException {
+        failureCheck = datagramSender.toWireFormat(failureCheck);
+        int messageSize = failureCheck.getSerializedSize();
+        int framedSize = CodedOutputStream.computeUInt32SizeNoTag(messageSize) + messageSize;
+
+        if (1 + framedSize > maxBatchSize) {
+            datagramSender.send(address, datagramSender.encode(failureCheck));
+            return;
+        }
+
+        OutboundBatch batch = batchOf(address);
+        synchronized (batch) {
+            // make room for the message
+            if (batch.messageCount > 0 && batch.buffer.position() + framedSize > maxBatchSize)
+                flush(batch);
+
+            if (batch.messageCount == 0) {
+                batch.buffer.put(BATCH_MARKER);
+                batch.flushTimeout.schedule(flushWindowInMillis);
+            }
+
+            CodedOutputStream outputStream = CodedOutputStream.newInstance(batch.buffer);
+            outputStream.writeUInt32NoTag(messageSize);
+            failureCheck.writeTo(outputStream);
+            outputStream.flush();
+            batch.messageCount++;
+        }
+    }
+
+    /**
+     * Returns batch of given destination, created on first use.
+     *
+     * @param address destination
+     * @return batch
+     */
+    private OutboundBatch batchOf(InetSocketAddress address) {
+        OutboundBatch batch = batches.get(address);
+
+        if (batch == null) {
+            OutboundBatch newBatch = new OutboundBatch(address, maxBatchSize);
+            newBatch.flushTimeout = wheelTimer.newTimeout(new Runnable() {
+                public void run() {
+                    synchronized (newBatch) {
+                        try {
+                            flush(newBatch);
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                }
+            });
+
+            batch = batches.putIfAbsent(address, newBatch);
+            if (batch == null)
+                batch = newBatch;
+        }
+
+        return batch;
+    }
+
+    /**
+     * Sends and empties a batch, caller holds the lock of the batch.
+     *
+     * @param batch batch
+     * @throws IOException if datagram can not be sent
+     */
+    private void flush(OutboundBatch batch) throws IOException {
+        if (batch.messageCount == 0)
+            return;
+
+        batch.flushTimeout.cancel();
+        batch.buffer.flip();
+
+        // single message is sent without batch framing
+        if (batch.messageCount == 1) {
+            batch.buffer.position(1);
+            readVarint(batch.buffer);
+        }
+
+        try {
+            datagramSender.send(batch.address, batch.buffer);
+        } finally {
+            batch.buffer.clear();
+            batch.messageCount = 0;
+        }
+    }
+
+    /**
+     * Flushes all pending batches, e.g. before stopping.
+     */
+    public void flushAll() {
+        for (OutboundBatch batch : batches.values()) {
+            synchronized (batch) {
+                try {
+                    flush(batch);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a varint encoded length and advances buffer position.
+     *
+     * @param buffer buffer
+     * @return value
+     * @throws IOException if varint is malformed or truncated
+     */
+    public static int readVarint(ByteBuffer buffer) throws IOException {
+        int value = 0;
+
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (!buffer.hasRemaining())
+                throw new IOException("Truncated length in batch datagram");
+
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                // length can not exceed rest of the datagram
+                if (value < 0 || value > buffer.remaining())
+                    throw new IOException("Invalid length in batch datagram");
+
+                return value;
+            }
+        }
+
+        throw new IOException("Malformed length in batch datagram");
+    }
+
+    /**
+     * Pending messages to one destination.
+     */
+    private static class OutboundBatch {
+        final InetSocketAddress address;
+        final ByteBuffer buffer;
+        int messageCount;
+        WheelTimeout flushTimeout;
+
+        OutboundBatch(InetSocketAddress address, int maxBatchSize) {
+            this.address = address;
+            this.buffer = ByteBuffer.allocateDirect(maxBatchSize);
+            this.messageCount = 0;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package siemens.db.adapt.FailureDetection.dissemination;
+
+import com.google.protobuf.CodedOutputStream;
+import siemens.db.adapt.FailureDetection.MembershipDictionary;
+import siemens.db.adapt.protocol.Failuredetector;
+import siemens.db.adapt.utils.PeerReplica;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.ProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sends failure detector messages over a single long-lived datagram channel.
+ *
+ * Channel is opened once and shared by all executor threads of a dissemination strategy.
+ * Socket addresses are resolved once per peer replica and cached, and messages are encoded
+ * directly into a direct buffer owned by the sending thread, so sending a message
+ * opens no socket, does no name lookup and allocates no byte array.
+ */
+public class DatagramSender {
+
+    // max size of a failure detector datagram
+    public static final int MAX_DATAGRAM_SIZE = 65000;
+
+    private final DatagramChannel channel;
+    private final ConcurrentHashMap<String, InetSocketAddress> peerAddresses;
+    private final ThreadLocal<ByteBuffer> sendBuffers;
+    // translates replica IDs to indices, null if strings are sent
+    private volatile MembershipDictionary membershipDictionary;
+
+    /**
+     * Opens the channel.
+     *
+     * @throws IOException if channel can not be opened
+     */
+    public DatagramSender() throws IOException {
+        this(null);
+    }
+
+    /**
+     * Opens the channel for given protocol family, e.g. IPv4 for an IPv4 multicast group.
+     *
+     * @param protocolFamily protocol family, null for platform default
+     * @throws IOException if channel can not be opened
+     */
+    public DatagramSender(ProtocolFamily protocolFamily) throws IOException {
+        this.channel = protocolFamily == null ? DatagramChannel.open() : DatagramChannel.open(protocolFamily);
+        this.peerAddresses = new ConcurrentHashMap<>();
+        this.sendBuffers = new ThreadLocal<ByteBuffer>() {
+            @Override
+            protected ByteBuffer initialValue() {
+                return ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+            }
+        };
+    }
+
+    /**
+     * Sends message to given peer replica.
+     *
+     * @param peerReplica destination
+     * @param failureCheck message
+     * @throws IOException if message can not be sent
+     */
+    public void send(PeerReplica peerReplica, Failuredetector.FailureCheck failureCheck) throws IOException {
+        send(addressOf(peerReplica), failureCheck);
+    }
+
+    /**
+     * Sends message to given address, e.g. a multicast group.
+     *
+     * @param address destination
+     * @param failureCheck message
+     * @throws IOException if message can not be sent
+     */
+    public void send(InetSocketAddress address, Failuredetector.FailureCheck failureCheck) throws IOException {
+        channel.send(encode(toWireFormat(failureCheck)), address);
+    }
+
+    /**
+     * Sets interface multicast datagrams are sent on, otherwise the OS picks it by routing table.
+     *
+     * @param networkInterface network interface
+     * @throws IOException if option can not be set
+     */
+    public void setMulticastInterface(NetworkInterface networkInterface) throws IOException {
+        channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, networkInterface);
+    }
+
+    /**
+     * Sets dictionary used to send replica indices instead of replica ID strings.
+     *
+     * @param membershipDictionary dictionary, null to send strings
+     */
+    public void setMembershipDictionary(MembershipDictionary membershipDictionary) {
+        this.membershipDictionary = membershipDictionary;
+    }
+
+    /**
+     * Returns message as it is sent, i.e. with replica indices if a membership dictionary is set.
+     *
+     * @param failureCheck message
+     * @return wire format of the message
+     */
+    public Failuredetector.FailureCheck toWireFormat(Failuredetector.FailureCheck failureCheck) {
+        MembershipDictionary dictionary = membershipDictionary;
+
+        return dictionary == null ? failureCheck : dictionary.encode(failureCheck);
+    }
+
+    /**
+     * Sends already encoded datagram, e.g. a batch of messages.
+     *
+     * @param address destination
+     * @param datagram remaining bytes of the buffer are sent
+     * @throws IOException if datagram can not be sent
+     */
+    public void send(InetSocketAddress address, ByteBuffer datagram) throws IOException {
+        channel.send(datagram, address);
+    }
+
+    /**
+     * Returns cached socket address of given peer replica, resolved on first use.
+     *
+     * @param peerReplica peer replica
+     * @return socket address of its failure detector listener
+     */
+    public InetSocketAddress addressOf(PeerReplica peerReplica) {
+        InetSocketAddress address = peerAddresses.get(peerReplica.getPeerReplicaId());
+
+        if (address == null) {
+            address = new InetSocketAddress(peerReplica.getIp(), peerReplica.getFailureDetectorPort());
+            peerAddresses.put(peerReplica.getPeerReplicaId(), address);
+        }
+
+        return address;
+    }
+
+    /**
+     * Encodes message, already in wire format, into send buffer of the calling thread.
+     *
+     * @param failureCheck message
+     * @return buffer ready to be sent
+     * @throws IOException if message can not be encoded
+     */
+    ByteBuffer encode(Failuredetector.FailureCheck failureCheck) throws IOException {
+        // oversized messages are sent as they are and dropped by the network, as before
+        if (failureCheck.getSerializedSize() > MAX_DATAGRAM_SIZE)
+            return ByteBuffer.wrap(failureCheck.toByteArray());
+
+        ByteBuffer buffer = sendBuffers.get();
+        buffer.clear();
+
+        CodedOutputStream outputStream = CodedOutputStream.newInstance(buffer);
+        failureCheck.writeTo(outputStream);
+        outputStream.flush();
+        buffer.flip();
+
+        return buffer;
+    }
+
+    /**
+     * Closes the channel.
+     */
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -38,7 +38,7 @@ public interface DisseminationStrategy {
 
     void setFailureDetectorContext(FailureDetectorContext failureDetectorContext);
 
-    void handleReceivedMessage(Failuredetector.FailureCheck failureCheck);
+    void handleReceivedMessage(Failuredetector.FailureCheck failureCheck, long receiveTimeMillis);
 
     int getFailureDetectorListeningPort();
 
@@ -47,4 +47,6 @@ public interface DisseminationStrategy {
     void setPeerReplicaAsLocallySuspected(String replicaID);
 
     void setPeerReplicaAsGlobalConsensusReached(String replicaID);
+
+    void setPeerReplicaAsAlive(String replicaID);
 }
@@ -0,0 +1,327 @@
+package siemens.db.adapt.FailureDetection.dissemination;
+
+import siemens.db.adapt.FailureDetection.MembershipDictionary;
+import siemens.db.adapt.protocol.Failuredetector;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Staged receive path of a dissemination strategy: socket drain, decode and process.
+ *
+ * Listener thread only drains the socket into preallocated direct buffers and hands them over,
+ * decoder thread parses them and returns the buffers, processor thread passes messages
+ * to the dissemination strategy, i.e. runs signalling, failure triggers and consensus.
+ * Stages are connected by bounded SpscRing queues.
+ * Receive time is taken when the datagram is drained and travels with it, so failure triggers
+ * see arrival times which do not depend on how long consensus processing of earlier messages took.
+ * Batch datagrams of DatagramBatcher are unpacked and replica indices are resolved by the decoder.
+ *
+ * No stage ever waits for a later one. If a queue is full the datagram is dropped and counted,
+ * so a long consensus merge can not stall socket draining and overflow the kernel buffer.
+ * Idle stages spin for a while, then park until the previous stage hands over the next element.
+ */
+public class ReceivePipeline {
+
+    private static final int DEFAULT_BUFFER_COUNT = 64;
+    private static final int DEFAULT_MESSAGE_QUEUE_SIZE = 4096;
+    private static final int IDLE_SPINS = 100;
+
+    private final String name;
+    private final DisseminationStrategy disseminationStrategy;
+
+    // empty buffers, decoder -> listener
+    private final SpscRing<ByteBuffer> freeBuffers;
+    // received datagrams, listener -> decoder
+    private final SpscRing<ByteBuffer> receivedBuffers;
+    // decoded messages, decoder -> processor
+    private final SpscRing<Failuredetector.FailureCheck> decodedMessages;
+    // receives datagrams which have to be dropped, since no free buffer is left
+    private final ByteBuffer overflowBuffer;
+    // translates received replica indices to IDs, null if strings are used
+    private volatile MembershipDictionary membershipDictionary;
+
+    private Thread decoderThread;
+    private Thread processorThread;
+    private volatile boolean running;
+
+    // true while stage thread is parked or about to park
+    private final AtomicBoolean decoderSleeping = new AtomicBoolean(false);
+    private final AtomicBoolean processorSleeping = new AtomicBoolean(false);
+
+    // counters, each written by a single stage
+    private volatile long receivedCount;
+    private volatile long drainOverflowCount;
+    private volatile long decodeErrorCount;
+    private volatile long processOverflowCount;
+    private volatile long processedCount;
+
+    /**
+     * Creates pipeline with default queue sizes.
+     *
+     * @param name name used for stage threads
+     * @param disseminationStrategy strategy which processes received messages
+     */
+    public ReceivePipeline(String name, DisseminationStrategy disseminationStrategy) {
+        this(name, disseminationStrategy, DEFAULT_BUFFER_COUNT, DEFAULT_MESSAGE_QUEUE_SIZE);
+    }
+
+    /**
+     * Creates pipeline and preallocates receive buffers.
+     *
+     * @param name name used for stage threads
+     * @param disseminationStrategy strategy which processes received messages
+     * @param bufferCount number of datagrams which can wait for decoding
+     * @param messageQueueSize number of decoded messages which can wait for processing
+     */
+    public ReceivePipeline(String name, DisseminationStrategy disseminationStrategy, int bufferCount,
+                           int messageQueueSize) {
+        this.name = name;
+        this.disseminationStrategy = disseminationStrategy;
+        this.freeBuffers = new SpscRing<>(bufferCount);
+        this.receivedBuffers = new SpscRing<>(bufferCount);
+        this.decodedMessages = new SpscRing<>(messageQueueSize);
+        this.overflowBuffer = ByteBuffer.allocateDirect(DatagramSender.MAX_DATAGRAM_SIZE);
+
+        for (int i = 0; i < freeBuffers.capacity(); i++)
+            freeBuffers.offer(ByteBuffer.allocateDirect(DatagramSender.MAX_DATAGRAM_SIZE));
+    }
+
+    /**
+     * Starts decoder and processor threads.
+     */
+    public void start() {
+        running = true;
+
+        decoderThread = new Thread(new Runnable() {
+            public void run() {
+                runDecoder();
+            }
+        }, "failure-detector-decoder-" + name);
+        decoderThread.setDaemon(true);
+        decoderThread.start();
+
+        processorThread = new Thread(new Runnable() {
+            public void run() {
+                runProcessor();
+            }
+        }, "failure-detector-processor-" + name);
+        processorThread.setDaemon(true);
+        processorThread.start();
+    }
+
+    /**
+     * Stops decoder and processor threads, queued messages are discarded.
+     */
+    public void stop() {
+        running = false;
+        LockSupport.unpark(decoderThread);
+        LockSupport.unpark(processorThread);
+    }
+
+    /**
+     * Sets dictionary used to resolve replica indices of received messages.
+     *
+     * @param membershipDictionary dictionary, null if strings are used
+     */
+    public void setMembershipDictionary(MembershipDictionary membershipDictionary) {
+        this.membershipDictionary = membershipDictionary;
+    }
+
+    /**
+     * Returns an empty buffer to receive the next datagram into.
+     * Called by listener thread only.
+     *
+     * @return free buffer, or overflow buffer if all buffers are waiting for decoding
+     */
+    public ByteBuffer acquireBuffer() {
+        ByteBuffer buffer = freeBuffers.poll();
+
+        if (buffer == null) {
+            overflowBuffer.clear();
+            return overflowBuffer;
+        }
+
+        return buffer;
+    }
+
+    /**
+     * Hands over a received datagram to the decoder.
+     * Called by listener thread only, with a buffer returned by acquireBuffer.
+     *
+     * @param buffer buffer containing the datagram, flipped
+     */
+    public void submit(ByteBuffer buffer) {
+        receivedCount++;
+
+        // decoder is behind, drop the datagram
+        if (buffer == overflowBuffer) {
+            drainOverflowCount++;
+            return;
+        }
+
+        // can not fail, there are never more buffers than ring capacity
+        receivedBuffers.offer(buffer, System.currentTimeMillis());
+        wakeUp(decoderThread, decoderSleeping);
+    }
+
+    private void runDecoder() {
+        int idleSpins = 0;
+
+        while (running) {
+            ByteBuffer buffer = receivedBuffers.poll();
+            if (buffer == null) {
+                idleSpins = idle(idleSpins, receivedBuffers, decoderSleeping);
+                continue;
+            }
+            idleSpins = 0;
+            long receiveTimeMillis = receivedBuffers.polledTag();
+
+            try {
+                if (buffer.hasRemaining() && buffer.get(buffer.position()) == DatagramBatcher.BATCH_MARKER)
+                    decodeBatch(buffer, receiveTimeMillis);
+                else
+                    enqueueDecodedMessage(Failuredetector.FailureCheck.parseFrom(buffer), receiveTimeMillis);
+
+            } catch (IOException e) {
+                // malformed datagram
+                decodeErrorCount++;
+            } catch (RuntimeException e) {
+                // malformed datagram the parser did not expect, keep decoding following ones
+                decodeErrorCount++;
+            }
+
+            buffer.clear();
+            freeBuffers.offer(buffer);
+        }
+    }
+
+    /**
+     * Parses every length prefixed message of a batch datagram.
+     *
+     * @param buffer buffer positioned at batch marker
+     * @param receiveTimeMillis receive time of the datagram
+     * @throws IOException if batch or one of its messages is malformed
+     */
+    private void decodeBatch(ByteBuffer buffer, long receiveTimeMillis) throws IOException {
+        int datagramEnd = buffer.limit();
+        buffer.get();
+
+        while (buffer.hasRemaining()) {
+            int messageEnd = DatagramBatcher.readVarint(buffer);
+            messageEnd += buffer.position();
+            if (messageEnd < buffer.position() || messageEnd > datagramEnd)
+                throw new IOException("Truncated message in batch datagram");
+
+            // parse message in place
+            buffer.limit(messageEnd);
+            enqueueDecodedMessage(Failuredetector.FailureCheck.parseFrom(buffer), receiveTimeMillis);
+            buffer.limit(datagramEnd);
+            buffer.position(messageEnd);
+        }
+    }
+
+    private void enqueueDecodedMessage(Failuredetector.FailureCheck failureCheck, long receiveTimeMillis) {
+        MembershipDictionary dictionary = membershipDictionary;
+        if (dictionary != null)
+            failureCheck = dictionary.decode(failureCheck);
+
+        // processor is behind, drop the message
+        if (!decodedMessages.offer(failureCheck, receiveTimeMillis)) {
+            processOverflowCount++;
+            return;
+        }
+
+        wakeUp(processorThread, processorSleeping);
+    }
+
+    private void runProcessor() {
+        int idleSpins = 0;
+
+        while (running) {
+            Failuredetector.FailureCheck failureCheck = decodedMessages.poll();
+            if (failureCheck == null) {
+                idleSpins = idle(idleSpins, decodedMessages, processorSleeping);
+                continue;
+            }
+            idleSpins = 0;
+
+            try {
+                disseminationStrategy.handleReceivedMessage(failureCheck, decodedMessages.polledTag());
+            } catch (RuntimeException e) {
+                // keep processing following messages
+                e.printStackTrace();
+            }
+            processedCount++;
+        }
+    }
+
+    /**
+     * Spins for a while after the last message, then parks until next element is handed over.
+     *
+     * @param idleSpins number of empty polls so far
+     * @param ring queue the stage polls
+     * @param sleeping sleeping flag of the stage
+     * @return updated number of empty polls
+     */
+    private int idle(int idleSpins, SpscRing<?> ring, AtomicBoolean sleeping) {
+        if (idleSpins < IDLE_SPINS)
+            return idleSpins + 1;
+
+        // announce sleep, then check again so an element offered meanwhile is not missed
+        sleeping.set(true);
+        if (ring.isEmpty() && running)
+            LockSupport.park(this);
+        sleeping.set(false);
+
+        return idleSpins;
+    }
+
+    /**
+     * Unparks a stage thread after an element was offered to its queue, if it sleeps.
+     *
+     * @param stageThread consuming stage thread
+     * @param sleeping sleeping flag of the stage
+     */
+    private static void wakeUp(Thread stageThread, AtomicBoolean sleeping) {
+        if (sleeping.get() && sleeping.compareAndSet(true, false))
+            LockSupport.unpark(stageThread);
+    }
+
+    /**
+     * Returns number of datagrams drained from the socket.
+     */
+    public long getReceivedCount() {
+        return receivedCount;
+    }
+
+    /**
+     * Returns number of datagrams dropped because all receive buffers were waiting for decoding.
+     */
+    public long getDrainOverflowCount() {
+        return drainOverflowCount;
+    }
+
+    /**
+     * Returns number of datagrams which could not be parsed.
+     */
+    public long getDecodeErrorCount() {
+        return decodeErrorCount;
+    }
+
+    /**
+     * Returns number of decoded messages dropped because processing queue was full.
+     */
+    public long getProcessOverflowCount() {
+        return processOverflowCount;
+    }
+
+    /**
+     * Returns number of messages processed.
+     */
+    public long getProcessedCount() {
+        return processedCount;
+    }
+}
@@ -1,21 +1,34 @@
 package siemens.db.adapt.FailureDetection.dissemination.RoundRobinGossipDissemination;
 
-import siemens.db.adapt.protocol.Failuredetector;
+import siemens.db.adapt.FailureDetection.dissemination.ReceivePipeline;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.SocketException;
-
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+/**
+ * Receives gossip messages on a non-blocking datagram channel.
+ *
+ * Listener thread only drains the socket into preallocated buffers of the ReceivePipeline,
+ * decoding and processing run on pipeline threads, so the socket is drained even during long consensus work.
+ */
 public class FailureDetectorUnicastListener extends Thread {
 
-    protected DatagramSocket socket = null;
-    protected boolean running = true;
+    // max time the selector blocks, so stopListening takes effect
+    private static final int SELECT_TIMEOUT_IN_MILLIS = 100;
+
+    protected DatagramChannel channel = null;
+    protected volatile boolean running = true;
     private RRGossipDissemination rrGossipDissemination;
+    private ReceivePipeline receivePipeline;
 
-    public FailureDetectorUnicastListener(RRGossipDissemination rrGossipDissemination) {
+    public FailureDetectorUnicastListener(RRGossipDissemination rrGossipDissemination, ReceivePipeline receivePipeline) {
         super();
         this.rrGossipDissemination = rrGossipDissemination;
+        this.receivePipeline = receivePipeline;
     }
 
     /**
@@ -32,31 +45,44 @@ public class FailureDetectorUnicastListener extends Thread {
 
     public void run() {
 
-
+        Selector selector;
         try {
-            socket = new DatagramSocket(rrGossipDissemination.getFailureDetectorListeningPort());
-        } catch (SocketException e) {
+            channel = DatagramChannel.open();
+            channel.bind(new InetSocketAddress(rrGossipDissemination.getFailureDetectorListeningPort()));
+            channel.configureBlocking(false);
+
+            selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_READ);
+        } catch (IOException e) {
             e.printStackTrace();
+            return;
         }
 
+        ByteBuffer buffer = receivePipeline.acquireBuffer();
+
         while (running) {
             try {
-                byte[] buf = new byte[65000];
-
-                // receive request
-                DatagramPacket packet = new DatagramPacket(buf, buf.length);
-                socket.receive(packet);
-
-                byte[] packetData = new byte[packet.getLength()];
-                System.arraycopy(packet.getData(), 0, packetData, 0, packet.getLength());
-                Failuredetector.FailureCheck parsedMessage = Failuredetector.FailureCheck.parseFrom(packetData);
-                rrGossipDissemination.handleReceivedMessage(parsedMessage);
+                if (selector.select(SELECT_TIMEOUT_IN_MILLIS) == 0)
+                    continue;
+                selector.selectedKeys().clear();
 
+                // drain all pending datagrams, decoding and processing is done by pipeline
+                while (channel.receive(buffer) != null) {
+                    buffer.flip();
+                    receivePipeline.submit(buffer);
+                    buffer = receivePipeline.acquireBuffer();
+                }
 
             } catch (IOException e) {
                 e.printStackTrace();
             }
         }
-        socket.close();
+
+        try {
+            selector.close();
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 }
@@ -1,13 +1,17 @@
 package siemens.db.adapt.FailureDetection.dissemination.RoundRobinGossipDissemination;
 
 import siemens.db.adapt.FailureDetection.FailureDetectorContext;
+import siemens.db.adapt.FailureDetection.dissemination.DatagramBatcher;
+import siemens.db.adapt.FailureDetection.dissemination.DatagramSender;
 import siemens.db.adapt.FailureDetection.dissemination.DisseminationStrategy;
+import siemens.db.adapt.FailureDetection.dissemination.ReceivePipeline;
 import siemens.db.adapt.protocol.Failuredetector;
 import siemens.db.adapt.utils.PeerReplica;
 import siemens.db.adapt.utils.PropertiesReader;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -19,6 +23,10 @@ public class RRGossipDissemination implements DisseminationStrategy {
 
 
     private ExecutorService executorService;
+    private DatagramSender datagramSender;
+    // coalesces messages per destination, null if batching is disabled
+    private DatagramBatcher datagramBatcher;
+    private int batchFlushWindowInMillis;
     private FailureDetectorContext failureDetectorContext;
     // hashmap contaning peer replicas <peerReplicaID, PeerReplica>
     private HashMap<String, PeerReplica> peerReplicaHashMap;
@@ -34,10 +42,16 @@ public class RRGossipDissemination implements DisseminationStrategy {
     private int myReplicaIndexInSortedArray;
     private int log2n;
     private FailureDetectorUnicastListener failureDetectorUnicastListener;
+    private ReceivePipeline receivePipeline;
     //private HashMap<String, Long> deltaTimestampOfReplicas;
-    private HashMap<String, Long> latesTimestampOfReplicas;
+    private Map<String, Long> latesTimestampOfReplicas;
     private Object sortedArrayLock;
 
+    // delta mode, every n-th message to a partner carries all timestamps, 0 if delta mode is disabled
+    private int deltaFullRefreshInterval;
+    // what each gossip partner has been told so far < partnerID, partner state >
+    private ConcurrentHashMap<String, GossipPartner> gossipPartners;
+
     // list for locally suspected replicas
     private HashSet<String> suspectedReplicas;
 
@@ -49,7 +63,8 @@ public class RRGossipDissemination implements DisseminationStrategy {
     public RRGossipDissemination() {
 
         gossipTimer = new Timer();
-        failureDetectorUnicastListener = new FailureDetectorUnicastListener(this);
+        receivePipeline = new ReceivePipeline("gossip", this);
+        failureDetectorUnicastListener = new FailureDetectorUnicastListener(this, receivePipeline);
         suspectedReplicas = new HashSet<>();
         sortedArrayLock = new Object();
 
@@ -62,6 +77,39 @@ public class RRGossipDissemination implements DisseminationStrategy {
     }
 
 
+    /**
+     * Enables coalescing of messages sent to the same replica within given flush window
+     * into one datagram. Must be called before start.
+     *
+     * @param batchFlushWindowInMillis flush window in ms, 0 disables batching
+     * @return this dissemination strategy
+     */
+    public RRGossipDissemination setBatchFlushWindow(int batchFlushWindowInMillis) {
+        this.batchFlushWindowInMillis = batchFlushWindowInMillis;
+
+        return this;
+    }
+
+    /**
+     * Sends message to given peer replica,
+     * either added to its batch or by an executor thread.
+     *
+     * @param peerReplica destination
+     * @param failureCheckMessage message
+     */
+    private void sendToPeerReplica(PeerReplica peerReplica, Failuredetector.FailureCheck.Builder failureCheckMessage) {
+        if (datagramBatcher == null) {
+            executorService.execute(new UnicastDisseminationRunnable(datagramSender, peerReplica, failureCheckMessage));
+            return;
+        }
+
+        try {
+            datagramBatcher.send(datagramSender.addressOf(peerReplica), failureCheckMessage.build());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     /**
      * Returns executors.
      *
@@ -88,12 +136,8 @@ public class RRGossipDissemination implements DisseminationStrategy {
     public synchronized void disseminate() {
 
 
-        // calculate delta times and attach to payload
-        HashMap<String, Long> deltaTimestampOfReplicas = new HashMap<>();
-        long currentTimeMillis = System.currentTimeMillis();
-        for (Map.Entry<String, Long> entry : latesTimestampOfReplicas.entrySet()) {
-            deltaTimestampOfReplicas.put(entry.getKey(), currentTimeMillis - entry.getValue());
-        }
+        // calculate delta times to be attached to payload
+        HashMap<String, Long> deltaTimestampOfReplicas = calculateDeltaTimestamps();
 
         // send to next replica in BRR fasion
         int destionationReplicaIndex = myReplicaIndexInSortedArray + new Double(Math.pow(2, gossipRound-1)).intValue();
@@ -101,17 +145,19 @@ public class RRGossipDissemination implements DisseminationStrategy {
             while (destionationReplicaIndex >= sortedPeerReplicaIDs.length)
                 destionationReplicaIndex -= sortedPeerReplicaIDs.length;
             if (!sortedPeerReplicaIDs[destionationReplicaIndex].equals(myReplicaID)) {
-                executorService.execute(new UnicastDisseminationRunnable(
+                sendToPeerReplica(
                         peerReplicaHashMap.get(sortedPeerReplicaIDs[destionationReplicaIndex]),
-                        failureDetectorContext.getPeriodicDisseminationMessage().putAllGossipPayloadDeltaTimestampsOfReplicas(deltaTimestampOfReplicas)));
+                        withGossipPayload(failureDetectorContext.getPeriodicDisseminationMessage(),
+                                sortedPeerReplicaIDs[destionationReplicaIndex], deltaTimestampOfReplicas));
             }
         }
 
         // send to suspected replicas too
         for (String replicaID : suspectedReplicas) {
-            executorService.execute(new UnicastDisseminationRunnable(
+            sendToPeerReplica(
                     peerReplicaHashMap.get(replicaID),
-                    failureDetectorContext.getPeriodicDisseminationMessage().putAllGossipPayloadDeltaTimestampsOfReplicas(deltaTimestampOfReplicas)));
+                    withGossipPayload(failureDetectorContext.getPeriodicDisseminationMessage(),
+                            replicaID, deltaTimestampOfReplicas));
         }
 
         gossipRound ++;
@@ -136,12 +182,8 @@ public class RRGossipDissemination implements DisseminationStrategy {
     @Override
     public void disseminateSpecificMessage(Failuredetector.FailureCheck.Builder failureCheckMessage) {
 
-        // calculate delta times and attach to payload
-        HashMap<String, Long> deltaTimestampOfReplicas = new HashMap<>();
-        long currentTimeMillis = System.currentTimeMillis();
-        for (Map.Entry<String, Long> entry : latesTimestampOfReplicas.entrySet()) {
-            deltaTimestampOfReplicas.put(entry.getKey(), currentTimeMillis - entry.getValue());
-        }
+        // calculate delta times to be attached to payload
+        HashMap<String, Long> deltaTimestampOfReplicas = calculateDeltaTimestamps();
 
         // message does not contain destination replica, so send arbitrary replica in BRR fasion
         if (failureCheckMessage.getDestinationReplicaId().isEmpty() &&
@@ -154,27 +196,29 @@ public class RRGossipDissemination implements DisseminationStrategy {
 
                 //System.out.println("Sending specific message from " + myReplicaID + " to " + sortedPeerReplicaIDs[destionationReplicaIndex]);
                 if (!sortedPeerReplicaIDs[destionationReplicaIndex].equals(myReplicaID)) {
-                    executorService.execute(new UnicastDisseminationRunnable(
+                    sendToPeerReplica(
                             peerReplicaHashMap.get(sortedPeerReplicaIDs[destionationReplicaIndex]),
-                            failureCheckMessage.putAllGossipPayloadDeltaTimestampsOfReplicas(deltaTimestampOfReplicas)));
+                            withGossipPayload(failureCheckMessage,
+                                    sortedPeerReplicaIDs[destionationReplicaIndex], deltaTimestampOfReplicas));
                 }
             }
 
             // send to suspected replicas too
             for (String replicaID : suspectedReplicas) {
                 //System.out.println("Sending specific message from " + myReplicaID + " to " + replicaID);
-                executorService.execute(new UnicastDisseminationRunnable(
+                sendToPeerReplica(
                         peerReplicaHashMap.get(replicaID),
-                        failureCheckMessage.putAllGossipPayloadDeltaTimestampsOfReplicas(deltaTimestampOfReplicas)));
+                        withGossipPayload(failureCheckMessage, replicaID, deltaTimestampOfReplicas));
             }
 
         }
         // only send to destination replica specified in the message
         else {
 
-            executorService.execute(new UnicastDisseminationRunnable(
-                    peerReplicaHashMap.get(peerReplicaHashMap.get(failureCheckMessage.getDestinationReplicaId())),
-                    failureCheckMessage.putAllGossipPayloadDeltaTimestampsOfReplicas(deltaTimestampOfReplicas)));
+            sendToPeerReplica(
+                    peerReplicaHashMap.get(failureCheckMessage.getDestinationReplicaId()),
+                    withGossipPayload(failureCheckMessage, failureCheckMessage.getDestinationReplicaId(),
+                            deltaTimestampOfReplicas));
         }
 
 
@@ -188,7 +232,97 @@ public class RRGossipDissemination implements DisseminationStrategy {
     }
 
     /**
-     * Initiates vars and sorts peer replicas in an array
+     * Calculates time passed since last heartbeat of every known replica.
+     * Not needed in delta mode, where payload is calculated per gossip partner.
+     *
+     * @return delta times in ms, null in delta mode
+     */
+    private HashMap<String, Long> calculateDeltaTimestamps() {
+        if (deltaFullRefreshInterval > 0)
+            return null;
+
+        HashMap<String, Long> deltaTimestampOfReplicas = new HashMap<>();
+        long currentTimeMillis = System.currentTimeMillis();
+        for (Map.Entry<String, Long> entry : latesTimestampOfReplicas.entrySet()) {
+            deltaTimestampOfReplicas.put(entry.getKey(), currentTimeMillis - entry.getValue());
+        }
+
+        return deltaTimestampOfReplicas;
+    }
+
+    /**
+     * Attaches gossip payload for given destination to the message.
+     *
+     * Without delta mode all delta times are attached to the message itself.
+     * In delta mode a copy of the message is created, since the same message may be sent
+     * to several replicas, and only timestamps the destination has not been told yet are attached.
+     *
+     * @param failureCheckMessage message
+     * @param destinationID destination replica
+     * @param deltaTimestampOfReplicas delta times of all replicas, null in delta mode
+     * @return message to be sent to destination
+     */
+    private Failuredetector.FailureCheck.Builder withGossipPayload(Failuredetector.FailureCheck.Builder failureCheckMessage,
+                                                                   String destinationID,
+                                                                   HashMap<String, Long> deltaTimestampOfReplicas) {
+        if (deltaTimestampOfReplicas != null)
+            return failureCheckMessage.putAllGossipPayloadDeltaTimestampsOfReplicas(deltaTimestampOfReplicas);
+
+        GossipPartner gossipPartner = gossipPartners.get(destinationID);
+        if (gossipPartner == null) {
+            gossipPartners.putIfAbsent(destinationID, new GossipPartner());
+            gossipPartner = gossipPartners.get(destinationID);
+        }
+
+        Failuredetector.FailureCheck.Builder partnerMessage = failureCheckMessage.clone();
+        long currentTimeMillis = System.currentTimeMillis();
+
+        synchronized (gossipPartner) {
+            // periodic full refresh repairs lost messages
+            boolean fullRefresh = gossipPartner.messagesSinceFullRefresh == 0;
+            gossipPartner.messagesSinceFullRefresh++;
+            if (gossipPartner.messagesSinceFullRefresh >= deltaFullRefreshInterval)
+                gossipPartner.messagesSinceFullRefresh = 0;
+
+            for (Map.Entry<String, Long> entry : latesTimestampOfReplicas.entrySet()) {
+                // destination knows best about itself
+                if (entry.getKey().equals(destinationID))
+                    continue;
+
+                // timestamp is the version of an entry, skip entries which did not change since last told
+                Long toldTimestamp = gossipPartner.toldTimestamps.get(entry.getKey());
+                if (!fullRefresh && toldTimestamp != null && toldTimestamp >= entry.getValue())
+                    continue;
+
+                partnerMessage.putGossipPayloadDeltaTimestampsOfReplicas(entry.getKey(),
+                        currentTimeMillis - entry.getValue());
+                gossipPartner.toldTimestamps.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        return partnerMessage;
+    }
+
+    /**
+     * Enables delta mode for gossip payload.
+     *
+     * Instead of delta times of all replicas, a message to a gossip partner only carries
+     * timestamps which are newer than the ones that partner has been told before,
+     * so gossip payload scales with churn instead of cluster size.
+     * Every fullRefreshInterval-th message to a partner carries all timestamps, in case messages were lost.
+     * Must be called before start.
+     *
+     * @param fullRefreshInterval number of messages to a partner between full refreshes, 0 disables delta mode
+     * @return this dissemination strategy
+     */
+    public RRGossipDissemination setDeltaPayload(int fullRefreshInterval) {
+        this.deltaFullRefreshInterval = fullRefreshInterval;
+
+        return this;
+    }
+
+    /**
+     * Initiates vars, opens sending channel and sorts peer replicas in an array
      * for easier usage in gossip protocol.
      *
      * @param failureDetectorContext
@@ -201,7 +335,17 @@ public class RRGossipDissemination implements DisseminationStrategy {
         this.myReplicaID = myReplicaID;
         this.gossipRound = 1;
         //this.deltaTimestampOfReplicas = new HashMap<>();
-        this.latesTimestampOfReplicas = new HashMap<>();
+        this.latesTimestampOfReplicas = new ConcurrentHashMap<>();
+        this.gossipPartners = new ConcurrentHashMap<>();
+
+        try {
+            datagramSender = new DatagramSender();
+            datagramSender.setMembershipDictionary(failureDetectorContext.getMembershipDictionary());
+            if (batchFlushWindowInMillis > 0)
+                datagramBatcher = new DatagramBatcher(datagramSender, batchFlushWindowInMillis);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
 
         sortedPeerReplicaIDs = new String[peerReplicaHashMap.size() + 1];
         sortedPeerReplicaIDs[0] = myReplicaID;
@@ -222,6 +366,8 @@ public class RRGossipDissemination implements DisseminationStrategy {
 
         startDisseminationTimer();
 
+        receivePipeline.setMembershipDictionary(failureDetectorContext.getMembershipDictionary());
+        receivePipeline.start();
         failureDetectorUnicastListener.start();
 
     }
@@ -233,7 +379,11 @@ public class RRGossipDissemination implements DisseminationStrategy {
     public void startDisseminationTimer() {
         gossipTimer.schedule(new TimerTask(){
             public void run() {
-                disseminate();
+                failureDetectorContext.execute(new Runnable() {
+                    public void run() {
+                        disseminate();
+                    }
+                });
                 startDisseminationTimer();
             }
         }, gossipTime);
@@ -248,7 +398,12 @@ public class RRGossipDissemination implements DisseminationStrategy {
     @Override
     public boolean stop() {
         failureDetectorUnicastListener.stopListening();
+        receivePipeline.stop();
         gossipTimer.cancel();
+        if (datagramBatcher != null)
+            datagramBatcher.flushAll();
+        if (datagramSender != null)
+            datagramSender.close();
 
         return true;
     }
@@ -268,13 +423,24 @@ public class RRGossipDissemination implements DisseminationStrategy {
      * Then calls handler method of failure detector context.
      *
      * @param failureCheck
+     * @param receiveTimeMillis time the datagram was drained from the socket
      */
     @Override
-    public void handleReceivedMessage(Failuredetector.FailureCheck failureCheck) {
+    public void handleReceivedMessage(final Failuredetector.FailureCheck failureCheck, final long receiveTimeMillis) {
+        // hand over to event loop if there is one
+        if (!failureDetectorContext.inEventLoop()) {
+            failureDetectorContext.execute(new Runnable() {
+                public void run() {
+                    handleReceivedMessage(failureCheck, receiveTimeMillis);
+                }
+            });
+            return;
+        }
+
         // go through timestamps and update local DELTA and TIMESTAMP lists
         HashMap<String, Long> deltaTimestampOfReplicas = new HashMap<>();
         deltaTimestampOfReplicas.put(failureCheck.getReplicaId(), (long)0);
-        long currentTimeMillis = System.currentTimeMillis();
+        long currentTimeMillis = receiveTimeMillis;
         latesTimestampOfReplicas.put(failureCheck.getReplicaId(), currentTimeMillis);
         //System.out.println(myReplicaID + " : delta values from " + failureCheck.getReplicaId() + " : " + failureCheck.getGossipPayloadDeltaTimestampsOfReplicasMap());
 
@@ -299,7 +465,16 @@ public class RRGossipDissemination implements DisseminationStrategy {
 
         //if (myReplicaID.equals("[B@470e2030127.0.0.19005")) {
 
-        failureDetectorContext.handleReceivedMessageFromGossip(failureCheck, deltaTimestampOfReplicas);
+        failureDetectorContext.handleReceivedMessageFromGossip(failureCheck, deltaTimestampOfReplicas, receiveTimeMillis);
+    }
+
+    /**
+     * Returns receive pipeline, e.g. to read its drop counters.
+     *
+     * @return receive pipeline
+     */
+    public ReceivePipeline getReceivePipeline() {
+        return receivePipeline;
     }
 
     /**
@@ -372,5 +547,44 @@ public class RRGossipDissemination implements DisseminationStrategy {
         suspectedReplicas.remove(replicaID);
     }
 
+    /**
+     * Puts a replica that refuted its suspicion back into gossiping list,
+     * recalculates own index and log2n and removes it from suspected replicas.
+     *
+     * @param replicaID
+     */
+    @Override
+    public void setPeerReplicaAsAlive(String replicaID) {
+        synchronized (sortedArrayLock) {
+            suspectedReplicas.remove(replicaID);
 
+            // already in gossiping list
+            for (int i = 0; i < sortedPeerReplicaIDs.length; i++)
+                if (sortedPeerReplicaIDs[i].equals(replicaID))
+                    return;
+
+            String[] tempArray = Arrays.copyOf(sortedPeerReplicaIDs, sortedPeerReplicaIDs.length + 1);
+            tempArray[sortedPeerReplicaIDs.length] = replicaID;
+            Arrays.sort(tempArray);
+
+            for (int k = 0; k < tempArray.length; k++) {
+                if (tempArray[k].equals(myReplicaID))
+                    myReplicaIndexInSortedArray = k;
+            }
+            sortedPeerReplicaIDs = tempArray;
+
+            // recalculate log2n
+            log2n = (int) Math.floor(Math.log(sortedPeerReplicaIDs.length) / Math.log(2));
+        }
+    }
+
+    /**
+     * Gossip payload state of one gossip partner, used in delta mode.
+     */
+    private static class GossipPartner {
+
+        // latest timestamp of each replica this partner has been told < replicaID, timestamp >
+        final HashMap<String, Long> toldTimestamps = new HashMap<>();
+        int messagesSinceFullRefresh = 0;
+    }
 }
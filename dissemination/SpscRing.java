@@ -0,0 +1,113 @@
+package siemens.db.adapt.FailureDetection.dissemination;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded lock-free queue for exactly one producer thread and one consumer thread.
+ *
+ * Producer only writes tail and consumer only writes head, so offer and poll need no lock
+ * and no compare-and-set. Tail is a volatile store, so a consumer which announces that it parks
+ * and then finds the ring empty is always seen parking by the producer of the next element.
+ *
+ * @param <E> element type
+ */
+class SpscRing<E> {
+
+    private final Object[] elements;
+    private final int mask;
+
+    // tag of each element, e.g. receive time, and tag of last polled element, written by consumer only
+    private final long[] tags;
+    private long polledTag;
+
+    // next position to poll, written by consumer only
+    private final AtomicLong head;
+    // next position to offer, written by producer only
+    private final AtomicLong tail;
+
+    /**
+     * Creates an empty ring.
+     *
+     * @param capacity max number of elements, rounded up to power of two
+     */
+    SpscRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+
+        this.elements = new Object[size];
+        this.tags = new long[size];
+        this.mask = size - 1;
+        this.head = new AtomicLong(0);
+        this.tail = new AtomicLong(0);
+    }
+
+    /**
+     * Adds element, called by producer thread only.
+     *
+     * @param element element
+     * @return false if ring is full
+     */
+    boolean offer(E element) {
+        return offer(element, 0);
+    }
+
+    /**
+     * Adds element with a tag, called by producer thread only.
+     *
+     * @param element element
+     * @param tag tag, returned by polledTag after the element is polled
+     * @return false if ring is full
+     */
+    boolean offer(E element, long tag) {
+        long currentTail = tail.get();
+        if (currentTail - head.get() > mask)
+            return false;
+
+        tags[(int) currentTail & mask] = tag;
+        elements[(int) currentTail & mask] = element;
+        tail.set(currentTail + 1);
+
+        return true;
+    }
+
+    /**
+     * Removes element, called by consumer thread only.
+     *
+     * @return oldest element, null if ring is empty
+     */
+    @SuppressWarnings("unchecked")
+    E poll() {
+        long currentHead = head.get();
+        if (currentHead >= tail.get())
+            return null;
+
+        int index = (int) currentHead & mask;
+        E element = (E) elements[index];
+        elements[index] = null;
+        polledTag = tags[index];
+        head.lazySet(currentHead + 1);
+
+        return element;
+    }
+
+    /**
+     * Returns tag of the element returned by last poll, called by consumer thread only.
+     *
+     * @return tag
+     */
+    long polledTag() {
+        return polledTag;
+    }
+
+    /**
+     * Checks if there is nothing to poll, called by consumer thread only.
+     *
+     * @return true if ring is empty
+     */
+    boolean isEmpty() {
+        return head.get() >= tail.get();
+    }
+
+    int capacity() {
+        return elements.length;
+    }
+}
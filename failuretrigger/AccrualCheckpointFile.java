@@ -0,0 +1,204 @@
+package siemens.db.adapt.FailureDetection.failuretrigger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+/**
+ * Memory mapped checkpoint of accrual sampling windows.
+ *
+ * Layout: header (magic, version, window size, entry count, checkpoint time) followed by
+ * one fixed size entry per peer replica (id, last arrival, sample count, samples oldest first).
+ * Entries are laid out once when the file is opened, so every checkpoint only overwrites
+ * arrival metadata and samples in place.
+ *
+ * Mapped pages are not forced to disk, the checkpoint is meant to survive process restarts.
+ */
+class AccrualCheckpointFile {
+
+    private static final int MAGIC = 0x46444350;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 8;
+    private static final int CHECKPOINT_TIME_OFFSET = 16;
+
+    private final String path;
+    private final int windowSize;
+    private MappedByteBuffer mappedBuffer;
+    private int[] entryOffsets;
+
+    /**
+     * Restored state of a single sampling window.
+     */
+    static class RestoredWindow {
+        long lastArrival;
+        int[] samples;
+        int sampleCount;
+    }
+
+    AccrualCheckpointFile(String path, int windowSize) {
+        this.path = path;
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Reads windows from an existing checkpoint file.
+     * Checkpoints older than maxAgeInMillis, never finished or from the future are skipped entirely,
+     * windows whose last arrival is older than maxAgeInMillis are treated as stale and skipped.
+     *
+     * @param currentTimeMillis current time in ms
+     * @param maxAgeInMillis max age of last arrival in ms
+     * @return restored windows by peer replica ID, empty if there is no valid checkpoint
+     */
+    HashMap<String, RestoredWindow> read(long currentTimeMillis, long maxAgeInMillis) {
+        HashMap<String, RestoredWindow> restoredWindows = new HashMap<>();
+
+        File file = new File(path);
+        if (!file.exists() || file.length() < HEADER_SIZE)
+            return restoredWindows;
+
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+             FileChannel channel = randomAccessFile.getChannel()) {
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            // checkpoint of another window size can not be used
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getInt() != windowSize)
+                return restoredWindows;
+
+            int entryCount = buffer.getInt();
+
+            // no checkpoint was finished since the file was laid out
+            long checkpointTime = buffer.getLong();
+            if (checkpointTime <= 0)
+                return restoredWindows;
+            if (checkpointTime > currentTimeMillis)
+                return corrupt(restoredWindows, "checkpoint time " + checkpointTime);
+            if (currentTimeMillis - checkpointTime > maxAgeInMillis)
+                return restoredWindows;
+
+            // each entry holds at least id length, last arrival, sample count and samples
+            long minEntrySize = 2 + 8 + 4 + 4L * windowSize;
+            if (entryCount < 0 || entryCount * minEntrySize > buffer.remaining())
+                return corrupt(restoredWindows, "entry count " + entryCount);
+
+            for (int i = 0; i < entryCount; i++) {
+                int idLength = buffer.getShort();
+                if (idLength < 0 || idLength > buffer.remaining() - (minEntrySize - 2))
+                    return corrupt(restoredWindows, "id length " + idLength);
+
+                byte[] idBytes = new byte[idLength];
+                buffer.get(idBytes);
+
+                RestoredWindow restoredWindow = new RestoredWindow();
+                restoredWindow.lastArrival = buffer.getLong();
+                restoredWindow.sampleCount = buffer.getInt();
+                if (restoredWindow.sampleCount < 0 || restoredWindow.sampleCount > windowSize)
+                    return corrupt(restoredWindows, "sample count " + restoredWindow.sampleCount);
+
+                restoredWindow.samples = new int[windowSize];
+                for (int k = 0; k < windowSize; k++)
+                    restoredWindow.samples[k] = buffer.getInt();
+
+                // skip stale windows and windows without any arrival
+                if (restoredWindow.lastArrival > 0
+                        && currentTimeMillis - restoredWindow.lastArrival <= maxAgeInMillis)
+                    restoredWindows.put(new String(idBytes, StandardCharsets.UTF_8), restoredWindow);
+            }
+        } catch (IOException | RuntimeException e) {
+            // corrupt or truncated checkpoint, start cold
+            e.printStackTrace();
+            restoredWindows.clear();
+        }
+
+        return restoredWindows;
+    }
+
+    /**
+     * Discards a checkpoint with out of range fields, e.g. a torn write.
+     *
+     * @param restoredWindows windows read so far
+     * @param reason invalid field
+     * @return emptied windows
+     */
+    private HashMap<String, RestoredWindow> corrupt(HashMap<String, RestoredWindow> restoredWindows, String reason) {
+        System.out.println("Discarding corrupt accrual checkpoint " + path + ": invalid " + reason);
+        restoredWindows.clear();
+
+        return restoredWindows;
+    }
+
+    /**
+     * Creates the file, maps it and lays out one entry for each given peer replica.
+     *
+     * @param peerReplicaIds ids of peer replicas, entry i belongs to peerReplicaIds[i]
+     * @throws IOException if file can not be mapped
+     */
+    void open(String[] peerReplicaIds) throws IOException {
+        byte[][] idBytes = new byte[peerReplicaIds.length][];
+        long size = HEADER_SIZE;
+        for (int i = 0; i < peerReplicaIds.length; i++) {
+            idBytes[i] = peerReplicaIds[i].getBytes(StandardCharsets.UTF_8);
+            size += 2 + idBytes[i].length + 8 + 4 + 4L * windowSize;
+        }
+
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(path, "rw");
+             FileChannel channel = randomAccessFile.getChannel()) {
+            channel.truncate(size);
+            mappedBuffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+
+        // header
+        mappedBuffer.putInt(MAGIC);
+        mappedBuffer.putInt(VERSION);
+        mappedBuffer.putInt(windowSize);
+        mappedBuffer.putInt(peerReplicaIds.length);
+        mappedBuffer.putLong(0);
+
+        // entries, no arrival and no samples yet
+        entryOffsets = new int[peerReplicaIds.length];
+        for (int i = 0; i < peerReplicaIds.length; i++) {
+            mappedBuffer.putShort((short) idBytes[i].length);
+            mappedBuffer.put(idBytes[i]);
+            entryOffsets[i] = mappedBuffer.position();
+            mappedBuffer.putLong(0);
+            mappedBuffer.putInt(0);
+            for (int k = 0; k < windowSize; k++)
+                mappedBuffer.putInt(0);
+        }
+    }
+
+    boolean isOpen() {
+        return mappedBuffer != null;
+    }
+
+    /**
+     * Overwrites entry of a peer replica.
+     *
+     * @param entry index of the peer replica given to open
+     * @param lastArrival last arrival time in ms, 0 if none
+     * @param samples samples, oldest first
+     * @param sampleCount number of valid samples
+     */
+    void writeEntry(int entry, long lastArrival, int[] samples, int sampleCount) {
+        int position = entryOffsets[entry];
+
+        mappedBuffer.putLong(position, lastArrival);
+        mappedBuffer.putInt(position + 8, sampleCount);
+        position += 12;
+        for (int k = 0; k < sampleCount; k++, position += 4)
+            mappedBuffer.putInt(position, samples[k]);
+    }
+
+    /**
+     * Stamps the checkpoint time after all entries are written.
+     *
+     * @param checkpointTime time in ms
+     */
+    void finish(long checkpointTime) {
+        mappedBuffer.putLong(CHECKPOINT_TIME_OFFSET, checkpointTime);
+    }
+}
@@ -1,27 +1,46 @@
 package siemens.db.adapt.FailureDetection.failuretrigger;
 
-import org.apache.commons.math3.distribution.NormalDistribution;
+public class AccrualDetectorSamplingWindow implements SuspicionWindow {
 
-import java.lang.reflect.Array;
-
-public class AccrualDetectorSamplingWindow {
+    // lower bound for standard deviation, prevents division by zero for perfectly regular heartbeats
+    private static final double MIN_STANDARD_DEVIATION_MILLIS = 1.0;
 
     private long[] samplingWindow;
     private int windowSize;
     private int arrayIndex;
     private int sampleCount;
 
+    // running statistics, updated as samples enter and leave the window
+    private long sum;
+    private long sumOfSquares;
+
     AccrualDetectorSamplingWindow(int windowSize) {
         this.windowSize = windowSize;
         this.sampleCount = 0;
         samplingWindow = new long[windowSize];
         arrayIndex = 0;
+        sum = 0;
+        sumOfSquares = 0;
     }
 
-    void addNewSample(long sample) {
+    /**
+     * Adds new sample to the window and updates running sum and sum of squares.
+     * Sample which leaves the window is subtracted, so this method is O(1).
+     *
+     * @param sample inter-arrival time in ms
+     */
+    public void addNewSample(long sample) {
+        // remove the oldest sample from running statistics if window is full
+        if (sampleCount >= windowSize) {
+            long oldSample = samplingWindow[arrayIndex];
+            sum -= oldSample;
+            sumOfSquares -= oldSample * oldSample;
+        }
+
         samplingWindow[arrayIndex] = sample;
+        sum += sample;
+        sumOfSquares += sample * sample;
 
-        //System.out.println("Adding sample " + sample + " at index " + arrayIndex);
         arrayIndex++;
         if (arrayIndex >= windowSize)
             arrayIndex = 0;
@@ -30,41 +49,72 @@ public class AccrualDetectorSamplingWindow {
             sampleCount++;
     }
 
-    boolean isSamplingWindowFull() {
+    /**
+     * Copies samples into given array, oldest first.
+     *
+     * @param target array of at least window size
+     * @return number of samples copied
+     */
+    public int copySamples(int[] target) {
+        int count = sampleCount;
+        int start = count < windowSize ? 0 : arrayIndex;
+
+        for (int i = 0; i < count; i++)
+            target[i] = (int) samplingWindow[(start + i) % windowSize];
+
+        return count;
+    }
+
+    public boolean isSamplingWindowFull() {
         if (sampleCount >= windowSize)
             return true;
         else
             return false;
     }
 
-    double phiValue(Long lastTimestamp) {
+    /**
+     * Computes phi value from running statistics.
+     *
+     * Normal tail is approximated by the logistic function from
+     * "A logistic approximation to the cumulative normal distribution" (Bowling et al.),
+     * so no allocation is done and the cost does not depend on window size.
+     *
+     * @param lastTimestamp arrival time of last message in ms
+     * @return phi value, 0 if sampling window is not full yet
+     */
+    public double phiValue(Long lastTimestamp) {
         if (isSamplingWindowFull()) {
             // compute mean and standard deviation
-            long sumOfSquares = 0;
-            double sum = 0;
-            // TODO: optimise. no need for 'for' loop
-            for (long sample : samplingWindow) {
-                sum += sample;
-                sumOfSquares += sample * sample;
-            }
-            double squareOfSum = sum * sum;
-
-
-            double sd = Math.sqrt((sumOfSquares - squareOfSum / samplingWindow.length) / (samplingWindow.length - 1));
-            if (sd<=0.0) {
-                System.out.println("sumOfSq: " + sumOfSquares + "; sqOfSum: " + squareOfSum + "; sampling window length: " + samplingWindow.length);
-                for (long sample : samplingWindow)
-                    System.out.println(sample);
-            }
-            NormalDistribution d = new NormalDistribution(sum / samplingWindow.length,
-                    sd);
-
+            double mean = (double) sum / windowSize;
+            double variance = ((double) sumOfSquares - ((double) sum * sum) / windowSize) / (windowSize - 1);
+            double sd = variance > 0 ? Math.sqrt(variance) : 0;
+            if (sd < MIN_STANDARD_DEVIATION_MILLIS)
+                sd = MIN_STANDARD_DEVIATION_MILLIS;
 
             // return phi
-            return (-1.0 * Math.log10(1.0 - d.cumulativeProbability(System.currentTimeMillis() - lastTimestamp)));
+            return phi(System.currentTimeMillis() - lastTimestamp, mean, sd);
         }
 
         // return 0 if sampling window is not full yet
         return 0;
     }
+
+    /**
+     * Returns -log10 of the probability that a message arrives later than timeDiff,
+     * for normally distributed inter-arrival times.
+     *
+     * @param timeDiff time since last arrival in ms
+     * @param mean mean of inter-arrival times
+     * @param sd standard deviation of inter-arrival times
+     * @return phi value
+     */
+    static double phi(long timeDiff, double mean, double sd) {
+        double y = (timeDiff - mean) / sd;
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+
+        if (timeDiff > mean)
+            return -Math.log10(e / (1.0 + e));
+        else
+            return -Math.log10(1.0 - 1.0 / (1.0 + e));
+    }
 }
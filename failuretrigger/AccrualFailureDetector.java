@@ -3,25 +3,48 @@ package siemens.db.adapt.FailureDetection.failuretrigger;
 import siemens.db.adapt.FailureDetection.FailureDetectorContext;
 import siemens.db.adapt.protocol.Failuredetector;
 import siemens.db.adapt.utils.PeerReplica;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
 
 public class AccrualFailureDetector implements LocalFailureTriggerStrategy {
 
-    private Map<String, Timer> timers;
-    private Map<String, TimerTask> timerTasks;
+    private Map<String, WheelTimeout> timeouts;
+    private HashedWheelTimer wheelTimer;
+    private PauseDetector pauseDetector;
     private FailureDetectorContext failureDetectorContext;
     private int recalculationTimeInMillis;
     private int suspicionThreshold;
     private int samplingWindowSize;
-    private HashMap<String, AccrualDetectorSamplingWindow> peerReplicaDeltaTimeSamples;
+    private HashMap<String, SuspicionWindow> peerReplicaDeltaTimeSamples;
     private HashMap<String, Long> peerReplicaLastReceptionTimestamp;
-    private boolean failureTriggerOnTimerStopped;
-    private Timer samplingWindowCheckerTimer;
-
-    private boolean stopped;
+    // last time a peer was known alive without a message, silence is counted from it but it adds no sample
+    private HashMap<String, Long> peerReplicaLastRefreshTimestamp;
+    // number of peers handed over from backup FailureTriggerOnTimer, only accessed by wheel timer thread
+    private int warmPeerReplicaCount;
+
+    // batched sweep mode
+    private boolean batchedSweep;
+    private AccrualSamplingTable samplingTable;
+    private WheelTimeout sweepTimeout;
+    private int[] suspectedSlots;
+    private boolean[] warmSlots;
+
+    // checkpointing of sampling windows
+    private String checkpointPath;
+    private int checkpointIntervalInMillis;
+    private long maxCheckpointAgeInMillis;
+    private AccrualCheckpointFile checkpointFile;
+    private WheelTimeout checkpointTimeout;
+    private String[] checkpointPeerReplicaIds;
+    private int[] checkpointSampleBuffer;
+    // serializes periodic and final checkpoint writes, they share buffer and file
+    private final Object checkpointLock = new Object();
+
+    // used as last arrival of peers restored from checkpoint until they send a message
+    private long startTimestamp;
+
+    private volatile boolean stopped;
     // for debug
     //String replica3 = "";
 
@@ -35,10 +58,13 @@ public class AccrualFailureDetector implements LocalFailureTriggerStrategy {
         this.samplingWindowSize = samplingWindowSize;
         this.peerReplicaDeltaTimeSamples = new HashMap<>();
         this.peerReplicaLastReceptionTimestamp = new HashMap<>();
+        this.peerReplicaLastRefreshTimestamp = new HashMap<>();
         this.recalculationTimeInMillis = recalculationTimeInMillis;
-        this.timers = new HashMap<>();
-        this.timerTasks = new HashMap<>();
-        this.failureTriggerOnTimerStopped = false;
+        this.timeouts = new HashMap<>();
+        this.wheelTimer = HashedWheelTimer.getSharedInstance();
+        this.pauseDetector = PauseDetector.getSharedInstance();
+        this.warmPeerReplicaCount = 0;
+        this.batchedSweep = false;
 
 
 
@@ -46,19 +72,67 @@ public class AccrualFailureDetector implements LocalFailureTriggerStrategy {
 
     }
 
+    /**
+     * Enables batched sweep mode.
+     *
+     * Instead of one timeout and one sampling window object per peer replica,
+     * state of all peers is kept in primitive arrays indexed by peer slot (see AccrualSamplingTable)
+     * and one periodic sweep evaluates suspicion of every peer in a single pass.
+     * Must be called before start. Not available for HistogramAccrualFailureDetector.
+     *
+     * @param batchedSweep true to enable batched sweep mode
+     * @return this detector
+     * @throws IllegalArgumentException if the detector does not support batched sweep
+     */
+    public AccrualFailureDetector setBatchedSweep(boolean batchedSweep) {
+        this.batchedSweep = batchedSweep;
+
+        return this;
+    }
+
+    /**
+     * Enables periodic checkpointing of sampling windows to a memory mapped file.
+     *
+     * On start, windows are restored from the file, so phi based detection can take over
+     * within one recalculation period after a restart instead of waiting for windows to refill.
+     * Windows whose last arrival is older than maxCheckpointAgeInMillis are treated as stale.
+     * Must be called before start.
+     *
+     * @param checkpointPath path of the checkpoint file
+     * @param checkpointIntervalInMillis checkpoint interval in ms
+     * @param maxCheckpointAgeInMillis max age of restored windows in ms
+     * @return this detector
+     */
+    public AccrualFailureDetector setCheckpointFile(String checkpointPath, int checkpointIntervalInMillis,
+                                                    long maxCheckpointAgeInMillis) {
+        this.checkpointPath = checkpointPath;
+        this.checkpointIntervalInMillis = checkpointIntervalInMillis;
+        this.maxCheckpointAgeInMillis = maxCheckpointAgeInMillis;
+
+        return this;
+    }
+
     /**
      * Handles the received message by recording arrival time
      * and creaing a new sample.
      *
      * @param failureCheck received message
+     * @param arrivalTimeMillis time the message was drained from the socket
      */
     @Override
-    public void handleReceivedMessage(Failuredetector.FailureCheck failureCheck) {
+    public void handleReceivedMessage(Failuredetector.FailureCheck failureCheck, long arrivalTimeMillis) {
         if (stopped)
             return;
 
-        long currentTimeMillis = System.currentTimeMillis();
+        long currentTimeMillis = arrivalTimeMillis;
 
+        // batched sweep mode, record arrival in sampling table
+        if (samplingTable != null) {
+            int slot = samplingTable.slotOf(failureCheck.getReplicaId());
+            if (slot >= 0)
+                samplingTable.recordArrival(slot, currentTimeMillis);
+            return;
+        }
 
         if (peerReplicaLastReceptionTimestamp.containsKey(failureCheck.getReplicaId())) {
 
@@ -86,17 +160,25 @@ public class AccrualFailureDetector implements LocalFailureTriggerStrategy {
      * Used when dissemination strategy is Gossip.
      *
      * @param deltaTimes
+     * @param arrivalTimeMillis time the message was drained from the socket, delta times are relative to it
      */
     @Override
-    public void handleReceivedMessageFromGossip(HashMap<String, Long> deltaTimes) {
+    public void handleReceivedMessageFromGossip(HashMap<String, Long> deltaTimes, long arrivalTimeMillis) {
         if (stopped)
             return;
 
-        long currentTimeMillis = System.currentTimeMillis();
+        long currentTimeMillis = arrivalTimeMillis;
 
         for (Map.Entry<String, Long> entry : deltaTimes.entrySet()) {
-            // add new sample
+            // batched sweep mode, record arrival in sampling table
+            if (samplingTable != null) {
+                int slot = samplingTable.slotOf(entry.getKey());
+                if (slot >= 0)
+                    samplingTable.recordArrival(slot, currentTimeMillis - entry.getValue());
+                continue;
+            }
 
+            // add new sample
 
             if (peerReplicaLastReceptionTimestamp.containsKey(entry.getKey())) {
                 peerReplicaDeltaTimeSamples.get(entry.getKey()).addNewSample(
@@ -111,15 +193,39 @@ public class AccrualFailureDetector implements LocalFailureTriggerStrategy {
 
     }
 
+    /**
+     * Counts silence of the peer from given time on, without adding an inter-arrival sample.
+     *
+     * @param peerReplicaId peer replica ID
+     * @param aliveTimeMillis time the peer was known to be alive
+     */
+    @Override
+    public void refreshArrival(String peerReplicaId, long aliveTimeMillis) {
+        if (stopped)
+            return;
+
+        // batched sweep mode
+        if (samplingTable != null) {
+            int slot = samplingTable.slotOf(peerReplicaId);
+            if (slot >= 0)
+                samplingTable.refreshArrival(slot, aliveTimeMillis);
+            return;
+        }
+
+        if (peerReplicaDeltaTimeSamples.containsKey(peerReplicaId))
+            peerReplicaLastRefreshTimestamp.put(peerReplicaId, aliveTimeMillis);
+    }
+
     /**
      * Creates sampling windows for each peer replica.
      *
-     * There are 2 timers here:
+     * Phi values are calculated in regular time intervals, either by one timeout per peer replica
+     * or by a single sweep over all peers in batched sweep mode.
      *
-     * One of them is used to calculate phi values of each peer replica in regular time intervals.
+     * Each peer replica is handed over from the backup FailureTriggerOnTimer to phi based detection
+     * as soon as its own sampling window is full. Backup trigger is stopped entirely once all peers are warm.
      *
-     * Other one is used to check whether all sampling windows have enough samples to start operating.
-     * If yes, stop default triggerer strategy.
+     * Local JVM pauses are compensated by PauseDetector, silence of a peer is not counted while we are stalled.
      *
      * @param failureDetectorContext
      * @param peerReplicaHashMap
@@ -128,151 +234,207 @@ public class AccrualFailureDetector implements LocalFailureTriggerStrategy {
     public void start(FailureDetectorContext failureDetectorContext, HashMap<String, PeerReplica> peerReplicaHashMap) {
         this.failureDetectorContext = failureDetectorContext;
         stopped = false;
+        warmPeerReplicaCount = 0;
 
-        // create sampling window for each replica
-        for (String peerReplicaID : peerReplicaHashMap.keySet()) {
-
-            AccrualDetectorSamplingWindow samplingWindow = new AccrualDetectorSamplingWindow(samplingWindowSize);
-            peerReplicaDeltaTimeSamples.put(peerReplicaID, samplingWindow);
-            //System.out.println(peerReplicaID);
-
-            // for debug
-            /*if (peerReplicaHashMap.get(peerReplicaID).getFailureDetectorPort() == 7003)
-                replica3 = peerReplicaID;*/
+        startTimestamp = System.currentTimeMillis();
 
+        if (batchedSweep)
+            startBatchedSweep(failureDetectorContext, peerReplicaHashMap);
+        else
+            startPerPeerTimeouts(failureDetectorContext, peerReplicaHashMap);
 
-            // create Timer and TimerTask for checking phi values
-            Timer timer = new Timer();
-            TimerTask timerTask = new TimerTask(){
-                public void run() {
+        // restore windows and start checkpointing
+        if (checkpointPath != null)
+            startCheckpointing(peerReplicaHashMap);
+    }
 
+    /**
+     * Restores sampling windows from checkpoint file and schedules periodic checkpoints.
+     *
+     * @param peerReplicaHashMap
+     */
+    private void startCheckpointing(HashMap<String, PeerReplica> peerReplicaHashMap) {
+        checkpointFile = new AccrualCheckpointFile(checkpointPath, samplingWindowSize);
+
+        // restore fresh windows
+        for (Map.Entry<String, AccrualCheckpointFile.RestoredWindow> entry
+                : checkpointFile.read(startTimestamp, maxCheckpointAgeInMillis).entrySet()) {
+            AccrualCheckpointFile.RestoredWindow restoredWindow = entry.getValue();
+
+            if (samplingTable != null) {
+                int slot = samplingTable.slotOf(entry.getKey());
+                if (slot >= 0)
+                    samplingTable.restore(slot, restoredWindow.samples, restoredWindow.sampleCount, startTimestamp);
+            } else if (peerReplicaDeltaTimeSamples.containsKey(entry.getKey())) {
+                SuspicionWindow samplingWindow = peerReplicaDeltaTimeSamples.get(entry.getKey());
+                for (int i = 0; i < restoredWindow.sampleCount; i++)
+                    samplingWindow.addNewSample(restoredWindow.samples[i]);
+            }
+        }
 
+        // lay out new checkpoint
+        checkpointPeerReplicaIds = peerReplicaHashMap.keySet().toArray(new String[0]);
+        checkpointSampleBuffer = new int[samplingWindowSize];
+        try {
+            checkpointFile.open(checkpointPeerReplicaIds);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
 
-                    if (failureTriggerOnTimerStopped) {
+        checkpointTimeout = wheelTimer.newTimeout(new Runnable() {
+            public void run() {
+                // final checkpoint is written by stop
+                if (stopped)
+                    return;
 
+                writeCheckpoint();
 
-                        double phiValue = samplingWindow.phiValue(peerReplicaLastReceptionTimestamp.get(peerReplicaID));
-                        //if (peerReplicaID.equals(replica3))
-                            //System.out.println("Suspicion value : " + phiValue +
-                            //    " threshold : " + suspicionThreshold);
-                        if ((phiValue == Double.POSITIVE_INFINITY) || (phiValue > suspicionThreshold)) {
-                            // trigger failure
-                            failureDetectorContext.setFailed(peerReplicaID);
-                        }
-                    }
+                // reschedule the checkpoint
+                if (!stopped)
+                    checkpointTimeout.schedule(checkpointIntervalInMillis);
+            }
+        });
+        checkpointTimeout.schedule(checkpointIntervalInMillis);
+    }
 
-                    // reschedule the timer
-                    rescheduleTimer(peerReplicaID);
+    /**
+     * Writes samples and last arrival of every peer replica to the checkpoint file.
+     * Called by wheel timer and by stop, one write at a time.
+     */
+    private void writeCheckpoint() {
+        synchronized (checkpointLock) {
+            for (int i = 0; i < checkpointPeerReplicaIds.length; i++) {
+                int sampleCount;
+                long lastArrival;
+
+                if (samplingTable != null) {
+                    int slot = samplingTable.slotOf(checkpointPeerReplicaIds[i]);
+                    sampleCount = samplingTable.copySamples(slot, checkpointSampleBuffer);
+                    lastArrival = samplingTable.lastArrivalOf(slot);
+                } else {
+                    sampleCount = peerReplicaDeltaTimeSamples.get(checkpointPeerReplicaIds[i])
+                            .copySamples(checkpointSampleBuffer);
+                    Long lastReceptionTimestamp = peerReplicaLastReceptionTimestamp.get(checkpointPeerReplicaIds[i]);
+                    lastArrival = lastReceptionTimestamp == null ? 0 : lastReceptionTimestamp;
                 }
-            };
-            timers.put(peerReplicaID, timer);
-            timerTasks.put(peerReplicaID, timerTask);
-
-            // schedule
-            timer.schedule(timerTask, recalculationTimeInMillis);
-        }
 
+                checkpointFile.writeEntry(i, lastArrival, checkpointSampleBuffer, sampleCount);
+            }
 
-        // stop FailureTriggerOnTimer strategy if sampling windows are full
-        // and Accrual can start operating
-        samplingWindowCheckerTimer = new Timer();
-        TimerTask timerTask = new TimerTask(){
-            public void run() {
+            checkpointFile.finish(System.currentTimeMillis());
+        }
+    }
 
-                boolean ready = true;
+    /**
+     * Creates sampling window and phi calculation timeout for each peer replica.
+     *
+     * @param failureDetectorContext
+     * @param peerReplicaHashMap
+     */
+    private void startPerPeerTimeouts(FailureDetectorContext failureDetectorContext,
+                                      HashMap<String, PeerReplica> peerReplicaHashMap) {
 
-                for (AccrualDetectorSamplingWindow samplingWindow : peerReplicaDeltaTimeSamples.values())
-                    if (!samplingWindow.isSamplingWindowFull())
-                        ready = false;
+        // create sampling window for each replica
+        for (String peerReplicaID : peerReplicaHashMap.keySet()) {
 
-                if (ready) {
-                    // stop FailureTriggerOnTimerStrategy
-                    failureDetectorContext.stopFailureTriggerOnTimer();
-                    failureTriggerOnTimerStopped = true;
-                } else {
+            SuspicionWindow samplingWindow = createSamplingWindow(samplingWindowSize);
+            peerReplicaDeltaTimeSamples.put(peerReplicaID, samplingWindow);
 
+            // create reusable timeout for checking phi values
+            WheelTimeout timeout = wheelTimer.newTimeout(new PhiCalculationTask(peerReplicaID, samplingWindow));
+            timeouts.put(peerReplicaID, timeout);
 
-                    //reschedule this timer
-                    rescheduleSamplingWindowCheckerTimer();
-                }
-            }
-        };
-        // schedule
-        samplingWindowCheckerTimer.schedule(timerTask, recalculationTimeInMillis);
+            // schedule
+            timeout.schedule(recalculationTimeInMillis);
+        }
+    }
 
+    /**
+     * Creates sampling window of a single peer replica.
+     * Window fits a normal distribution to inter-arrival times.
+     *
+     * @param windowSize sampling window size
+     * @return sampling window
+     */
+    SuspicionWindow createSamplingWindow(int windowSize) {
+        return new AccrualDetectorSamplingWindow(windowSize);
     }
 
     /**
-     * Reschedules the timer which is used to detect whether sampling windows have enough samples to start operating.
+     * Creates sampling table and a single timeout which sweeps all peer replicas
+     * in regular time intervals.
      *
+     * @param failureDetectorContext
+     * @param peerReplicaHashMap
      */
-    void rescheduleSamplingWindowCheckerTimer() {
+    private void startBatchedSweep(FailureDetectorContext failureDetectorContext,
+                                   HashMap<String, PeerReplica> peerReplicaHashMap) {
+
+        samplingTable = new AccrualSamplingTable(peerReplicaHashMap.keySet().toArray(new String[0]), samplingWindowSize);
+        suspectedSlots = new int[samplingTable.size()];
+        warmSlots = new boolean[samplingTable.size()];
 
-        TimerTask timerTask = new TimerTask(){
+        sweepTimeout = wheelTimer.newTimeout(new Runnable() {
             public void run() {
-                boolean ready = true;
 
-                for (AccrualDetectorSamplingWindow samplingWindow : peerReplicaDeltaTimeSamples.values())
-                    if (!samplingWindow.isSamplingWindowFull())
-                        ready = false;
+                // hand over peers whose sampling window became full
+                if (warmPeerReplicaCount < samplingTable.size()) {
+                    for (int slot = 0; slot < samplingTable.size(); slot++) {
+                        if (!warmSlots[slot] && samplingTable.isSamplingWindowFull(slot)) {
+                            warmSlots[slot] = true;
+                            handOverPeerReplica(samplingTable.peerReplicaIdAt(slot), samplingTable.size());
+                        }
+                    }
+                }
 
-                if (ready) {
-                    // stop FailureTriggerOnTimerStrategy
-                    System.out.println("STOPPING TIMER BASED FAILURE DETECTOR!");
-                    failureDetectorContext.stopFailureTriggerOnTimer();
-                    failureTriggerOnTimerStopped = true;
-                } else {
-                    //reschedule this timer
-                    rescheduleSamplingWindowCheckerTimer();
+                // only slots with full sampling window are evaluated,
+                // silence is counted from the end of the last local pause at the earliest
+                int suspectedCount = samplingTable.sweep(System.currentTimeMillis(), pauseDetector.getLastPauseEnd(),
+                        suspicionThreshold, suspectedSlots);
 
-                }
+                // trigger failure
+                for (int i = 0; i < suspectedCount; i++)
+                    failureDetectorContext.setFailed(samplingTable.peerReplicaIdAt(suspectedSlots[i]));
+
+                // reschedule the sweep
+                if (!stopped)
+                    sweepTimeout.schedule(recalculationTimeInMillis);
             }
-        };
+        });
 
-        // reschedule
-        samplingWindowCheckerTimer.purge();
-        samplingWindowCheckerTimer.schedule(timerTask, recalculationTimeInMillis);
+        // schedule
+        sweepTimeout.schedule(recalculationTimeInMillis);
+    }
+
+    /**
+     * Stops backup FailureTriggerOnTimer for given peer replica, since its sampling window is full.
+     * Stops backup trigger entirely when all peer replicas are handed over.
+     *
+     * @param peerReplicaID peer replica which became warm
+     * @param peerReplicaCount number of peer replicas
+     */
+    private void handOverPeerReplica(String peerReplicaID, int peerReplicaCount) {
+        failureDetectorContext.stopFailureTriggerOnTimer(peerReplicaID);
+        warmPeerReplicaCount++;
+
+        if (warmPeerReplicaCount == peerReplicaCount) {
+            // stop FailureTriggerOnTimerStrategy
+            System.out.println("STOPPING TIMER BASED FAILURE DETECTOR!");
+            failureDetectorContext.stopFailureTriggerOnTimer();
+        }
     }
 
 
     /**
-     * Reschdules the timer which is used to calculate phi values
+     * Reschedules the timeout which is used to calculate phi values
      * of each replica in regular time intervals.
      *
      * @param peerReplicaID
      */
     void rescheduleTimer(String peerReplicaID) {
-
-        // cancel current TimerTask and create new one
-        timerTasks.get(peerReplicaID).cancel();
-        TimerTask timerTask = new TimerTask(){
-            public void run() {
-
-                if (failureTriggerOnTimerStopped) {
-
-                    double phiValue = peerReplicaDeltaTimeSamples.get(peerReplicaID).phiValue(peerReplicaLastReceptionTimestamp.get(peerReplicaID));
-
-                    /*if (peerReplicaID.equals(replica3)) {
-                        System.out.println("FROM TIMER: Suspicion value : " + peerReplicaDeltaTimeSamples.get(replica3).phiValue(peerReplicaLastReceptionTimestamp.get(replica3)) +
-                                " threshold : " + suspicionThreshold + "; last timestamp: " + peerReplicaLastReceptionTimestamp.get(replica3));
-                    }*/
-
-                    if ((phiValue == Double.POSITIVE_INFINITY) || (phiValue > suspicionThreshold)) {
-                        // trigger failure
-                        failureDetectorContext.setFailed(peerReplicaID);
-                    }
-                }
-
-                // reschedule the timer
-                rescheduleTimer(peerReplicaID);
-            }
-        };
-        timerTasks.put(peerReplicaID, timerTask);
-
-        // reschedule
-        Timer timer = timers.get(peerReplicaID);
-        timer.purge();
-        timer.schedule(timerTask, recalculationTimeInMillis);
+        if (!stopped)
+            timeouts.get(peerReplicaID).schedule(recalculationTimeInMillis);
     }
 
     /**
@@ -281,11 +443,22 @@ public class AccrualFailureDetector implements LocalFailureTriggerStrategy {
      */
     @Override
     public boolean stop() {
+        // no timer task reschedules itself from now on
+        stopped = true;
+
+        for (WheelTimeout timeout : timeouts.values())
+            timeout.cancel();
+        if (sweepTimeout != null)
+            sweepTimeout.cancel();
+
+        // write last checkpoint, e.g. before a rolling restart,
+        // waits for a periodic checkpoint which is already running
+        if (checkpointTimeout != null) {
+            checkpointTimeout.cancel();
+            writeCheckpoint();
+        }
 
-        for (Timer timer : timers.values())
-            timer.cancel();
-
-        return stopped = true;
+        return true;
     }
 
     @Override
@@ -293,6 +466,51 @@ public class AccrualFailureDetector implements LocalFailureTriggerStrategy {
         return recalculationTimeInMillis;
     }
 
+    /**
+     * Periodic phi calculation of one peer replica in per peer timeout mode.
+     */
+    private class PhiCalculationTask implements Runnable {
+
+        private final String peerReplicaID;
+        private final SuspicionWindow samplingWindow;
+        private boolean warm;
+
+        PhiCalculationTask(String peerReplicaID, SuspicionWindow samplingWindow) {
+            this.peerReplicaID = peerReplicaID;
+            this.samplingWindow = samplingWindow;
+            this.warm = false;
+        }
+
+        public void run() {
+
+            // hand over this peer as soon as its own sampling window is full
+            if (!warm && samplingWindow.isSamplingWindowFull()) {
+                warm = true;
+                handOverPeerReplica(peerReplicaID, peerReplicaDeltaTimeSamples.size());
+            }
+
+            if (warm) {
+                // peers restored from checkpoint have no arrival until their first message
+                Long lastReceptionTimestamp = peerReplicaLastReceptionTimestamp.get(peerReplicaID);
+                if (lastReceptionTimestamp == null)
+                    lastReceptionTimestamp = startTimestamp;
+                Long lastRefreshTimestamp = peerReplicaLastRefreshTimestamp.get(peerReplicaID);
+                if (lastRefreshTimestamp != null && lastRefreshTimestamp > lastReceptionTimestamp)
+                    lastReceptionTimestamp = lastRefreshTimestamp;
+
+                // silence is counted from the end of the last local pause at the earliest
+                double phiValue = samplingWindow.phiValue(pauseDetector.compensate(lastReceptionTimestamp));
+                if ((phiValue == Double.POSITIVE_INFINITY) || (phiValue > suspicionThreshold)) {
+                    // trigger failure
+                    failureDetectorContext.setFailed(peerReplicaID);
+                }
+            }
+
+            // reschedule the timeout
+            rescheduleTimer(peerReplicaID);
+        }
+    }
+
     /**
      * Returns some fake samples.
      *
@@ -0,0 +1,160 @@
+package siemens.db.adapt.FailureDetection.failuretrigger;
+
+/**
+ * Non-parametric sampling window which keeps a log-bucketed histogram of inter-arrival times.
+ *
+ * Values below 8 ms get a bucket each, above that every power of two is split into 4 buckets,
+ * so relative bucket width is at most 25%. Window memory is fixed: one byte per sample
+ * (bucket index, kept to remove samples leaving the window) and one counter per bucket.
+ *
+ * Phi is computed from the empirical tail P(X > t) in O(buckets) without allocation.
+ * Beyond the largest observed sample the tail is extrapolated exponentially with the window mean,
+ * so long-tailed and multi-modal distributions do not cause false suspicions,
+ * while phi still grows without bound for a silent peer.
+ */
+public class AccrualHistogramWindow implements SuspicionWindow {
+
+    private static final int LINEAR_BUCKETS = 8;
+    private static final int SUB_BUCKETS = 4;
+    // largest bucket starts at 2^20 ms, about 17 minutes
+    private static final int MAX_OCTAVE = 20;
+    static final int BUCKET_COUNT = LINEAR_BUCKETS + SUB_BUCKETS * (MAX_OCTAVE - 2);
+
+    private static final double LOG10_E = Math.log10(Math.E);
+
+    private final byte[] sampleBuckets;
+    private final int[] bucketCounts;
+    private final int windowSize;
+    private int arrayIndex;
+    private int sampleCount;
+
+    // sum of bucket lower bounds of samples in the window, used for tail extrapolation
+    private long sum;
+
+    AccrualHistogramWindow(int windowSize) {
+        this.windowSize = windowSize;
+        this.sampleBuckets = new byte[windowSize];
+        this.bucketCounts = new int[BUCKET_COUNT];
+        this.arrayIndex = 0;
+        this.sampleCount = 0;
+        this.sum = 0;
+    }
+
+    /**
+     * Returns bucket index of given value.
+     *
+     * @param value inter-arrival time in ms
+     * @return bucket index
+     */
+    static int bucketOf(long value) {
+        if (value < LINEAR_BUCKETS)
+            return value < 0 ? 0 : (int) value;
+
+        int octave = 63 - Long.numberOfLeadingZeros(value);
+        if (octave > MAX_OCTAVE)
+            return BUCKET_COUNT - 1;
+
+        int subBucket = (int) (value >>> (octave - 2)) & (SUB_BUCKETS - 1);
+
+        return LINEAR_BUCKETS + (octave - 3) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns smallest value which falls in given bucket.
+     *
+     * @param bucket bucket index, may be BUCKET_COUNT for upper bound of the last bucket
+     * @return lower bound in ms
+     */
+    static long lowerBoundOf(int bucket) {
+        if (bucket < LINEAR_BUCKETS)
+            return bucket;
+
+        int octave = 3 + (bucket - LINEAR_BUCKETS) / SUB_BUCKETS;
+        int subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+
+        return (long) (SUB_BUCKETS + subBucket) << (octave - 2);
+    }
+
+    @Override
+    public void addNewSample(long sample) {
+        int bucket = bucketOf(sample);
+
+        // remove the oldest sample if window is full
+        if (sampleCount >= windowSize) {
+            int oldBucket = sampleBuckets[arrayIndex] & 0xFF;
+            bucketCounts[oldBucket]--;
+            sum -= lowerBoundOf(oldBucket);
+        } else {
+            sampleCount++;
+        }
+
+        sampleBuckets[arrayIndex] = (byte) bucket;
+        bucketCounts[bucket]++;
+        sum += lowerBoundOf(bucket);
+
+        arrayIndex++;
+        if (arrayIndex >= windowSize)
+            arrayIndex = 0;
+    }
+
+    @Override
+    public boolean isSamplingWindowFull() {
+        return sampleCount >= windowSize;
+    }
+
+    @Override
+    public double phiValue(Long lastTimestamp) {
+        if (!isSamplingWindowFull())
+            return 0;
+
+        long timeDiff = System.currentTimeMillis() - lastTimestamp;
+        int bucket = bucketOf(timeDiff);
+
+        // samples in higher buckets
+        long above = 0;
+        int largestBucket = bucket;
+        for (int i = bucket + 1; i < BUCKET_COUNT; i++) {
+            if (bucketCounts[i] > 0) {
+                above += bucketCounts[i];
+                largestBucket = i;
+            }
+        }
+
+        // part of current bucket above timeDiff, assuming uniform spread within the bucket
+        double lower = lowerBoundOf(bucket);
+        double upper = lowerBoundOf(bucket + 1);
+        double within = bucketCounts[bucket] * Math.max(0.0, Math.min(1.0, (upper - timeDiff) / (upper - lower)));
+
+        // empirical tail, bounded below by half a sample
+        double minimumTail = 0.5 / windowSize;
+        double tail = (above + within) / windowSize;
+        if (above > 0 || bucketCounts[bucket] > 0)
+            return -Math.log10(Math.max(tail, minimumTail));
+
+        // beyond largest observed sample, extrapolate exponentially from its bucket
+        while (largestBucket > 0 && bucketCounts[largestBucket] == 0)
+            largestBucket--;
+        double edge = lowerBoundOf(largestBucket + 1);
+        double mean = Math.max(1.0, (double) sum / windowSize);
+
+        return -Math.log10(minimumTail) + Math.max(0.0, timeDiff - edge) / mean * LOG10_E;
+    }
+
+    /**
+     * Copies samples as lower bounds of their buckets, oldest first.
+     * Replaying them restores the same histogram.
+     *
+     * @param target array of at least window size
+     * @return number of samples copied
+     */
+    @Override
+    public int copySamples(int[] target) {
+        int count = sampleCount;
+        int start = count < windowSize ? 0 : arrayIndex;
+
+        for (int i = 0; i < count; i++)
+            target[i] = (int) lowerBoundOf(sampleBuckets[(start + i) % windowSize] & 0xFF);
+
+        return count;
+    }
+}
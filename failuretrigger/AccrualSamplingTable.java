@@ -0,0 +1,215 @@
+package siemens.db.adapt.FailureDetection.failuretrigger;
+
+import java.util.HashMap;
+
+/**
+ * Sampling windows of all peer replicas stored as struct of arrays.
+ *
+ * Every peer replica gets a slot. Last arrival, running sums and sample count of a peer are kept
+ * in primitive arrays indexed by its slot, and ring buffers of all peers are stored back to back
+ * in one int array. Used by AccrualFailureDetector in batched sweep mode,
+ * so suspicion of all peers is evaluated in one pass over contiguous memory.
+ */
+class AccrualSamplingTable {
+
+    private final int windowSize;
+    private final String[] peerReplicaIds;
+    private final HashMap<String, Integer> slots;
+
+    // per slot state
+    private final long[] lastArrival;
+    private final boolean[] hasArrival;
+    // last time peer was known alive without a message, only used as start of silence
+    private final long[] lastRefresh;
+    private final long[] sum;
+    private final long[] sumOfSquares;
+    private final int[] sampleCount;
+    private final int[] ringIndex;
+
+    // ring buffers of all slots, slot i occupies [i * windowSize, (i + 1) * windowSize)
+    private final int[] samples;
+
+    /**
+     * Creates table with one slot for each given peer replica.
+     *
+     * @param peerReplicaIds ids of peer replicas
+     * @param windowSize sampling window size
+     */
+    AccrualSamplingTable(String[] peerReplicaIds, int windowSize) {
+        int peerCount = peerReplicaIds.length;
+
+        this.windowSize = windowSize;
+        this.peerReplicaIds = peerReplicaIds;
+        this.slots = new HashMap<>(peerCount * 2);
+        for (int i = 0; i < peerCount; i++)
+            slots.put(peerReplicaIds[i], i);
+
+        this.lastArrival = new long[peerCount];
+        this.hasArrival = new boolean[peerCount];
+        this.lastRefresh = new long[peerCount];
+        this.sum = new long[peerCount];
+        this.sumOfSquares = new long[peerCount];
+        this.sampleCount = new int[peerCount];
+        this.ringIndex = new int[peerCount];
+        this.samples = new int[peerCount * windowSize];
+    }
+
+    /**
+     * Returns slot of given peer replica.
+     *
+     * @param peerReplicaId peer replica id
+     * @return slot, -1 if unknown
+     */
+    int slotOf(String peerReplicaId) {
+        Integer slot = slots.get(peerReplicaId);
+
+        return slot == null ? -1 : slot;
+    }
+
+    String peerReplicaIdAt(int slot) {
+        return peerReplicaIds[slot];
+    }
+
+    int size() {
+        return peerReplicaIds.length;
+    }
+
+    /**
+     * Records arrival of a message and adds inter-arrival sample,
+     * if a previous arrival is known.
+     *
+     * @param slot slot of sender
+     * @param arrivalTime arrival time in ms
+     */
+    void recordArrival(int slot, long arrivalTime) {
+        if (hasArrival[slot])
+            addNewSample(slot, arrivalTime - lastArrival[slot]);
+
+        lastArrival[slot] = arrivalTime;
+        hasArrival[slot] = true;
+    }
+
+    /**
+     * Records that peer was alive at given time without adding a sample,
+     * silence is counted from then on.
+     *
+     * @param slot slot of peer
+     * @param aliveTime time in ms
+     */
+    void refreshArrival(int slot, long aliveTime) {
+        if (aliveTime > lastRefresh[slot])
+            lastRefresh[slot] = aliveTime;
+    }
+
+    /**
+     * Adds new sample to ring buffer of the slot and updates running sums.
+     *
+     * @param slot slot
+     * @param sample inter-arrival time in ms
+     */
+    private void addNewSample(int slot, long sample) {
+        int value = (int) Math.min(Math.max(sample, 0), Integer.MAX_VALUE);
+        int position = slot * windowSize + ringIndex[slot];
+
+        // remove the oldest sample if window is full
+        if (sampleCount[slot] >= windowSize) {
+            long oldSample = samples[position];
+            sum[slot] -= oldSample;
+            sumOfSquares[slot] -= oldSample * oldSample;
+        } else {
+            sampleCount[slot]++;
+        }
+
+        samples[position] = value;
+        sum[slot] += value;
+        sumOfSquares[slot] += (long) value * value;
+
+        ringIndex[slot] = ringIndex[slot] + 1 == windowSize ? 0 : ringIndex[slot] + 1;
+    }
+
+    /**
+     * Restores samples of a slot, e.g. from a checkpoint.
+     * Given baseline is used as last arrival for phi calculation until a message arrives,
+     * but no sample is created from it.
+     *
+     * @param slot slot
+     * @param restoredSamples samples, oldest first
+     * @param count number of samples
+     * @param baseline baseline arrival time in ms
+     */
+    void restore(int slot, int[] restoredSamples, int count, long baseline) {
+        for (int i = 0; i < count; i++)
+            addNewSample(slot, restoredSamples[i]);
+
+        if (!hasArrival[slot])
+            lastArrival[slot] = baseline;
+    }
+
+    /**
+     * Copies samples of a slot into given array, oldest first.
+     *
+     * @param slot slot
+     * @param target array of at least window size
+     * @return number of samples copied
+     */
+    int copySamples(int slot, int[] target) {
+        int count = sampleCount[slot];
+        int start = count < windowSize ? 0 : ringIndex[slot];
+        int offset = slot * windowSize;
+
+        for (int i = 0; i < count; i++)
+            target[i] = samples[offset + (start + i) % windowSize];
+
+        return count;
+    }
+
+    /**
+     * Returns last arrival time of a slot.
+     *
+     * @param slot slot
+     * @return arrival time in ms, 0 if no message has arrived yet
+     */
+    long lastArrivalOf(int slot) {
+        return hasArrival[slot] ? lastArrival[slot] : 0;
+    }
+
+    boolean isSamplingWindowFull(int slot) {
+        return sampleCount[slot] >= windowSize;
+    }
+
+    /**
+     * Evaluates all slots with full sampling window in one pass.
+     *
+     * phi > threshold is checked as P(later arrival) < 10^-threshold,
+     * so only one exp is computed per peer and no logarithm.
+     *
+     * @param currentTimeMillis current time in ms
+     * @param arrivalFloor earliest time silence is counted from, e.g. end of last local pause, in ms
+     * @param suspicionThreshold phi threshold
+     * @param suspectedSlots output array of size() elements, filled with suspected slots
+     * @return number of suspected slots written to suspectedSlots
+     */
+    int sweep(long currentTimeMillis, long arrivalFloor, double suspicionThreshold, int[] suspectedSlots) {
+        double probabilityThreshold = Math.pow(10, -suspicionThreshold);
+        double n = windowSize;
+        int suspectedCount = 0;
+
+        for (int slot = 0; slot < lastArrival.length; slot++) {
+            if (sampleCount[slot] < windowSize)
+                continue;
+
+            double mean = sum[slot] / n;
+            double variance = (sumOfSquares[slot] - (sum[slot] * (double) sum[slot]) / n) / (n - 1);
+            double sd = variance > 1.0 ? Math.sqrt(variance) : 1.0;
+
+            long silenceStart = Math.max(Math.max(lastArrival[slot], lastRefresh[slot]), arrivalFloor);
+            double y = (currentTimeMillis - silenceStart - mean) / sd;
+            double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+
+            if (e / (1.0 + e) < probabilityThreshold)
+                suspectedSlots[suspectedCount++] = slot;
+        }
+
+        return suspectedCount;
+    }
+}
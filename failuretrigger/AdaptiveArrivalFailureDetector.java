@@ -0,0 +1,240 @@
+package siemens.db.adapt.FailureDetection.failuretrigger;
+
+import siemens.db.adapt.FailureDetection.FailureDetectorContext;
+import siemens.db.adapt.protocol.Failuredetector;
+import siemens.db.adapt.utils.PeerReplica;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class implements an adaptive failure trigger in the style of Chen's estimator.
+ *
+ * For each peer replica exponentially weighted moving averages of inter-arrival time and its deviation
+ * are kept. Next expected arrival is estimated as lastArrival + mean, and the peer is suspected
+ * if no message arrives within mean + deviationFactor * deviation + safetyMargin.
+ *
+ * State per peer is O(1). Until minimumSamples samples have been seen from a peer,
+ * its deadline falls back to the coarse failure timeout, so no separate backup trigger is needed.
+ */
+public class AdaptiveArrivalFailureDetector implements LocalFailureTriggerStrategy {
+
+    // weights of new samples, same as TCP retransmission timer estimation
+    private static final double MEAN_GAIN = 0.125;
+    private static final double DEVIATION_GAIN = 0.25;
+
+    private Map<String, ArrivalEstimate> arrivalEstimates;
+    private HashedWheelTimer wheelTimer;
+    private PauseDetector pauseDetector;
+    private FailureDetectorContext failureDetectorContext;
+    private int failureTimeout;
+    private int minimumSamples;
+    private double deviationFactor;
+    private int safetyMarginInMillis;
+    private boolean stopped;
+
+    /**
+     * Constructor.
+     *
+     * @param failureTimeout coarse timeout used until enough samples are collected, in ms
+     * @param minimumSamples number of samples after which adaptive deadline is used
+     * @param deviationFactor multiplier of deviation added to expected arrival
+     * @param safetyMarginInMillis constant safety margin added to expected arrival, in ms
+     */
+    public AdaptiveArrivalFailureDetector(int failureTimeout, int minimumSamples, double deviationFactor,
+                                          int safetyMarginInMillis) {
+        this.arrivalEstimates = new HashMap<>();
+        this.wheelTimer = HashedWheelTimer.getSharedInstance();
+        this.pauseDetector = PauseDetector.getSharedInstance();
+        this.failureTimeout = failureTimeout;
+        this.minimumSamples = minimumSamples;
+        this.deviationFactor = deviationFactor;
+        this.safetyMarginInMillis = safetyMarginInMillis;
+        this.stopped = false;
+    }
+
+    /**
+     * Creates estimate and timeout for each replica and schedules coarse deadline.
+     *
+     * @param failureDetectorContext
+     * @param peerReplicaHashMap
+     */
+    @Override
+    public void start(FailureDetectorContext failureDetectorContext, HashMap<String, PeerReplica> peerReplicaHashMap) {
+        this.failureDetectorContext = failureDetectorContext;
+        stopped = false;
+
+        long startTimestamp = System.currentTimeMillis();
+
+        for (String peerReplicaID : peerReplicaHashMap.keySet()) {
+            ArrivalEstimate arrivalEstimate = new ArrivalEstimate();
+            arrivalEstimate.lastArrival = startTimestamp;
+            arrivalEstimate.deadline = failureTimeout;
+            arrivalEstimate.timeout = wheelTimer.newTimeout(new Runnable() {
+                public void run() {
+
+                    // local pause since last arrival, give the peer a full deadline after the pause
+                    long extension;
+                    synchronized (arrivalEstimate) {
+                        extension = pauseDetector.compensate(
+                                Math.max(arrivalEstimate.lastArrival, arrivalEstimate.lastRefresh))
+                                + arrivalEstimate.deadline - System.currentTimeMillis();
+                    }
+                    if (extension > 0) {
+                        arrivalEstimate.timeout.schedule(extension);
+                        return;
+                    }
+
+                    // trigger failure
+                    failureDetectorContext.setFailed(peerReplicaID);
+                }
+            });
+            arrivalEstimates.put(peerReplicaID, arrivalEstimate);
+
+            // schedule
+            arrivalEstimate.timeout.schedule(failureTimeout);
+        }
+    }
+
+    /**
+     * Updates estimate of the sender and moves its deadline.
+     *
+     * @param failureCheck received message
+     * @param arrivalTimeMillis time the message was drained from the socket
+     */
+    @Override
+    public void handleReceivedMessage(Failuredetector.FailureCheck failureCheck, long arrivalTimeMillis) {
+        if (stopped)
+            return;
+
+        ArrivalEstimate arrivalEstimate = arrivalEstimates.get(failureCheck.getReplicaId());
+        if (arrivalEstimate != null)
+            recordArrival(arrivalEstimate, arrivalTimeMillis, System.currentTimeMillis() - arrivalTimeMillis);
+    }
+
+    /**
+     * Updates estimates from delta timestamps received by gossip.
+     *
+     * @param deltaTimes time passed since last message of each replica, in ms
+     * @param arrivalTimeMillis time the message was drained from the socket, delta times are relative to it
+     */
+    @Override
+    public void handleReceivedMessageFromGossip(HashMap<String, Long> deltaTimes, long arrivalTimeMillis) {
+        if (stopped)
+            return;
+
+        long processingDelay = System.currentTimeMillis() - arrivalTimeMillis;
+
+        for (Map.Entry<String, Long> entry : deltaTimes.entrySet()) {
+            ArrivalEstimate arrivalEstimate = arrivalEstimates.get(entry.getKey());
+            if (arrivalEstimate != null)
+                recordArrival(arrivalEstimate, arrivalTimeMillis - entry.getValue(), entry.getValue() + processingDelay);
+        }
+    }
+
+    /**
+     * Moves deadline of the peer without touching its estimate.
+     *
+     * @param peerReplicaId peer replica ID
+     * @param aliveTimeMillis time the peer was known to be alive
+     */
+    @Override
+    public void refreshArrival(String peerReplicaId, long aliveTimeMillis) {
+        if (stopped)
+            return;
+
+        ArrivalEstimate arrivalEstimate = arrivalEstimates.get(peerReplicaId);
+        if (arrivalEstimate == null)
+            return;
+
+        long delay;
+        synchronized (arrivalEstimate) {
+            if (aliveTimeMillis <= Math.max(arrivalEstimate.lastArrival, arrivalEstimate.lastRefresh))
+                return;
+
+            arrivalEstimate.lastRefresh = aliveTimeMillis;
+            delay = arrivalEstimate.deadline - (System.currentTimeMillis() - aliveTimeMillis);
+        }
+
+        arrivalEstimate.timeout.schedule(Math.max(1, delay));
+    }
+
+    /**
+     * Adds inter-arrival sample to moving averages and reschedules deadline.
+     *
+     * @param arrivalEstimate estimate of the sender
+     * @param arrivalTime arrival time of the message in ms
+     * @param age time passed since arrival in ms
+     */
+    private void recordArrival(ArrivalEstimate arrivalEstimate, long arrivalTime, long age) {
+        long delay;
+
+        synchronized (arrivalEstimate) {
+            // ignore outdated information
+            if (arrivalEstimate.sampleCount >= 0 && arrivalTime <= arrivalEstimate.lastArrival)
+                return;
+
+            if (arrivalEstimate.sampleCount >= 0) {
+                long sample = arrivalTime - arrivalEstimate.lastArrival;
+
+                if (arrivalEstimate.sampleCount == 0) {
+                    arrivalEstimate.mean = sample;
+                    arrivalEstimate.deviation = sample / 2.0;
+                } else {
+                    double error = sample - arrivalEstimate.mean;
+                    arrivalEstimate.mean += MEAN_GAIN * error;
+                    arrivalEstimate.deviation += DEVIATION_GAIN * (Math.abs(error) - arrivalEstimate.deviation);
+                }
+            }
+            arrivalEstimate.sampleCount++;
+            arrivalEstimate.lastArrival = arrivalTime;
+
+            // adaptive deadline if enough samples, coarse timeout otherwise
+            if (arrivalEstimate.sampleCount >= minimumSamples)
+                delay = (long) Math.ceil(arrivalEstimate.mean + deviationFactor * arrivalEstimate.deviation)
+                        + safetyMarginInMillis;
+            else
+                delay = failureTimeout;
+            arrivalEstimate.deadline = delay;
+        }
+
+        // new deadline may have passed already, e.g. for old gossip information, expire right away then
+        arrivalEstimate.timeout.schedule(Math.max(1, delay - age));
+    }
+
+    /**
+     * Cancels timeouts.
+     */
+    @Override
+    public boolean stop() {
+        stopped = true;
+
+        for (ArrivalEstimate arrivalEstimate : arrivalEstimates.values())
+            arrivalEstimate.timeout.cancel();
+
+        return true;
+    }
+
+    @Override
+    public int getFailureTimeoutValue() {
+        return failureTimeout;
+    }
+
+    /**
+     * Moving estimate of inter-arrival times of one peer replica.
+     */
+    private static class ArrivalEstimate {
+
+        // -1 until first arrival, number of inter-arrival samples afterwards
+        int sampleCount = -1;
+        // start time until first arrival
+        long lastArrival;
+        // last time the peer was known alive without a message, e.g. indirect probe ack
+        long lastRefresh;
+        // deadline after last arrival, in ms
+        long deadline;
+        double mean;
+        double deviation;
+        WheelTimeout timeout;
+    }
+}
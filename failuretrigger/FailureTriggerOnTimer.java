@@ -5,14 +5,16 @@ import siemens.db.adapt.protocol.Failuredetector;
 import siemens.db.adapt.utils.PeerReplica;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  *
  */
 public class FailureTriggerOnTimer implements LocalFailureTriggerStrategy {
 
-    private Map<String, Timer> timers;
-    private Map<String, TimerTask> timerTasks;
+    private Map<String, WheelTimeout> timeouts;
+    private HashedWheelTimer wheelTimer;
+    private PauseDetector pauseDetector;
     private FailureDetectorContext failureDetectorContext;
     private int failureTimeout;
     private boolean stopped;
@@ -23,14 +25,15 @@ public class FailureTriggerOnTimer implements LocalFailureTriggerStrategy {
      * @param failureTimeout
      */
     public FailureTriggerOnTimer(int failureTimeout) {
-        this.timers = new HashMap<>();
-        this.timerTasks = new HashMap<>();
+        this.timeouts = new ConcurrentHashMap<>();
+        this.wheelTimer = HashedWheelTimer.getSharedInstance();
+        this.pauseDetector = PauseDetector.getSharedInstance();
         this.failureTimeout = failureTimeout;
         this.stopped = false;
     }
 
     /**
-     * Starts timers for each replica.
+     * Creates and schedules timeout for each replica.
      *
      * @param peerReplicaHashMap
      */
@@ -40,109 +43,113 @@ public class FailureTriggerOnTimer implements LocalFailureTriggerStrategy {
 
         for (Map.Entry<String, PeerReplica> entry : peerReplicaHashMap.entrySet()) {
 
-            // create Timer and TimerTask
-            Timer timer = new Timer();
-            TimerTask timerTask = new TimerTask(){
+            // create reusable timeout
+            WheelTimeout timeout = wheelTimer.newTimeout(new Runnable() {
                 public void run() {
 
+                    // peer has been handed over to another trigger meanwhile
+                    WheelTimeout self = timeouts.get(entry.getKey());
+                    if (self == null)
+                        return;
+
+                    // local pause within the timeout, give the peer a full timeout after the pause
+                    long currentTimeMillis = System.currentTimeMillis();
+                    long extension = pauseDetector.compensate(currentTimeMillis - failureTimeout)
+                            + failureTimeout - currentTimeMillis;
+                    if (extension > 0) {
+                        self.schedule(extension);
+                        return;
+                    }
+
                     // trigger failure
                     failureDetectorContext.setFailed(entry.getKey());
                 }
-            };
-            timers.put(entry.getKey(), timer);
-            timerTasks.put(entry.getKey(), timerTask);
+            });
+            timeouts.put(entry.getKey(), timeout);
 
             // schedule
-            timer.schedule(timerTask, failureTimeout);
+            timeout.schedule(failureTimeout);
         }
     }
 
     /**
      *
-     * Resets timer of specific replica when a message has been received from it.
+     * Resets timeout of specific replica when a message has been received from it.
      *
      * @param failureCheck received message
+     * @param arrivalTimeMillis time the message was drained from the socket
      */
     @Override
-    public void handleReceivedMessage(Failuredetector.FailureCheck failureCheck) {
-        //timers.get(failureCheck.getReplicaId()).cancel();
+    public void handleReceivedMessage(Failuredetector.FailureCheck failureCheck, long arrivalTimeMillis) {
         if (stopped)
             return;
 
-        // cancel current TimerTask and create new one
-        timerTasks.get(failureCheck.getReplicaId()).cancel();
-        TimerTask timerTask = new TimerTask(){
-            public void run() {
-                failureDetectorContext.setFailed(failureCheck.getReplicaId());
-            }
-        };
-        timerTasks.put(failureCheck.getReplicaId(), timerTask);
-
-        //Timer timer = new Timer();
-        //timers.put(failureCheck.getReplicaId(), timer);
-
-        // get Timer object
-        Timer timer = timers.get(failureCheck.getReplicaId());
+        // move deadline of existing timeout, counted from arrival
+        WheelTimeout timeout = timeouts.get(failureCheck.getReplicaId());
+        if (timeout != null)
+            timeout.schedule(Math.max(1, failureTimeout - (System.currentTimeMillis() - arrivalTimeMillis)));
+    }
 
-        // create new Timer if terminated
-        if (timer == null) {
-            timer = new Timer();
-            timers.put(failureCheck.getReplicaId(), timer);
-        }
+    /**
+     * Resets timeout of specific replica, timer based trigger keeps no samples.
+     *
+     * @param peerReplicaId peer replica ID
+     * @param aliveTimeMillis time the peer was known to be alive
+     */
+    @Override
+    public void refreshArrival(String peerReplicaId, long aliveTimeMillis) {
+        if (stopped)
+            return;
 
-        // schedule
-        timer.purge();
-        timer.schedule(timerTask, failureTimeout);
+        WheelTimeout timeout = timeouts.get(peerReplicaId);
+        if (timeout != null)
+            timeout.schedule(Math.max(1, failureTimeout - (System.currentTimeMillis() - aliveTimeMillis)));
     }
 
     /**
      *
      * @param deltaTimes
+     * @param arrivalTimeMillis time the message was drained from the socket, delta times are relative to it
      */
     @Override
-    public void handleReceivedMessageFromGossip(HashMap<String, Long> deltaTimes) {
-        //timers.get(failureCheck.getReplicaId()).cancel();
+    public void handleReceivedMessageFromGossip(HashMap<String, Long> deltaTimes, long arrivalTimeMillis) {
         if (stopped)
             return;
 
-        // TODO: why are we creating new TimerTasks? Use existing ones?
+        long processingDelay = System.currentTimeMillis() - arrivalTimeMillis;
         for (Map.Entry<String, Long> entry : deltaTimes.entrySet()) {
-            if (failureTimeout - entry.getValue() > 0) {
-                // cancel current TimerTask and create new one
-                timerTasks.get(entry.getKey()).cancel();
-                TimerTask timerTask = new TimerTask() {
-                    public void run() {
-                        failureDetectorContext.setFailed(entry.getKey());
-                    }
-                };
-                timerTasks.put(entry.getKey(), timerTask);
-
-                // get Timer object
-                Timer timer = timers.get(entry.getKey());
-
-                // create new Timer if terminated
-                if (timer == null) {
-                    timer = new Timer();
-                    timers.put(entry.getKey(), timer);
-                }
-
-                // schedule
-                timer.purge();
-                timer.schedule(timerTask, failureTimeout - entry.getValue());
+            long age = entry.getValue() + processingDelay;
+            if (failureTimeout - age > 0) {
+                // move deadline of existing timeout
+                WheelTimeout timeout = timeouts.get(entry.getKey());
+                if (timeout != null)
+                    timeout.schedule(failureTimeout - age);
             }
         }
     }
 
     /**
-     * Stops timers.
+     * Stops monitoring of a single replica.
+     * Used when another trigger strategy takes over detection of this replica.
+     *
+     * @param peerReplicaId replica ID
+     */
+    public void stopMonitoring(String peerReplicaId) {
+        WheelTimeout timeout = timeouts.remove(peerReplicaId);
+        if (timeout != null)
+            timeout.cancel();
+    }
+
+    /**
+     * Cancels timeouts.
      */
     @Override
     public boolean stop() {
 
         stopped = true;
 
-        for (Timer timer : timers.values())
-            timer.cancel();
+        for (WheelTimeout timeout : timeouts.values())
+            timeout.cancel();
 
         return true;
     }
@@ -0,0 +1,201 @@
+package siemens.db.adapt.FailureDetection.failuretrigger;
+
+/**
+ * Hashed wheel timer shared by all failure trigger strategies.
+ *
+ * Deadlines are kept in a wheel of buckets, each bucket is an intrusive doubly linked list
+ * of WheelTimeout objects. Scheduling, rescheduling and cancelling a timeout is O(1)
+ * and does not allocate, since WheelTimeout objects are reused for the lifetime of a peer.
+ *
+ * Single worker thread advances the wheel every tick and runs expired tasks,
+ * so number of threads does not depend on number of peer replicas.
+ * Tasks should be short, as they delay all other timeouts.
+ */
+public class HashedWheelTimer {
+
+    private static final int DEFAULT_TICK_DURATION_IN_MILLIS = 5;
+    private static final int DEFAULT_WHEEL_SIZE = 1024;
+
+    private static HashedWheelTimer sharedInstance;
+
+    private final long tickDurationInNanos;
+    private final WheelTimeout[] wheel;
+    private final int mask;
+    private final Object lock;
+    private final long startTime;
+    private final Thread workerThread;
+
+    // last tick processed by worker thread, guarded by lock
+    private long currentTick;
+
+    /**
+     * Returns timer shared by the whole failure detector.
+     * Timer is created and started on first call.
+     *
+     * @return shared timer
+     */
+    public static synchronized HashedWheelTimer getSharedInstance() {
+        if (sharedInstance == null)
+            sharedInstance = new HashedWheelTimer(DEFAULT_TICK_DURATION_IN_MILLIS, DEFAULT_WHEEL_SIZE);
+
+        return sharedInstance;
+    }
+
+    /**
+     * Creates wheel and starts worker thread.
+     *
+     * @param tickDurationInMillis resolution of the timer
+     * @param wheelSize number of buckets, rounded up to power of two
+     */
+    HashedWheelTimer(int tickDurationInMillis, int wheelSize) {
+        int size = Integer.highestOneBit(Math.max(wheelSize, 2) - 1) << 1;
+
+        this.tickDurationInNanos = tickDurationInMillis * 1000000L;
+        this.wheel = new WheelTimeout[size];
+        this.mask = size - 1;
+        this.lock = new Object();
+        this.currentTick = 0;
+
+        // each bucket starts with a sentinel, so linking never needs null checks
+        for (int i = 0; i < size; i++) {
+            WheelTimeout sentinel = new WheelTimeout(this, null);
+            sentinel.previous = sentinel;
+            sentinel.next = sentinel;
+            wheel[i] = sentinel;
+        }
+
+        this.startTime = System.nanoTime();
+        this.workerThread = new Thread(new Runnable() {
+            public void run() {
+                runWorker();
+            }
+        }, "failure-detector-wheel-timer");
+        this.workerThread.setDaemon(true);
+        this.workerThread.start();
+    }
+
+    /**
+     * Creates a timeout handle for given task. Handle is not scheduled yet.
+     *
+     * @param task task to run when timeout expires
+     * @return timeout handle
+     */
+    public WheelTimeout newTimeout(Runnable task) {
+        return new WheelTimeout(this, task);
+    }
+
+    /**
+     * (Re)schedules given timeout to expire after delay.
+     * If timeout is already scheduled, previous deadline is dropped.
+     *
+     * @param timeout timeout handle
+     * @param delayInMillis delay in ms
+     */
+    void schedule(WheelTimeout timeout, long delayInMillis) {
+        long deadlineTick = (System.nanoTime() - startTime + delayInMillis * 1000000L + tickDurationInNanos - 1)
+                / tickDurationInNanos;
+
+        synchronized (lock) {
+            unlink(timeout);
+
+            // deadline already passed, fire on next tick
+            if (deadlineTick <= currentTick)
+                deadlineTick = currentTick + 1;
+
+            timeout.deadlineTick = deadlineTick;
+            timeout.stamp++;
+
+            // link as first element of the bucket
+            WheelTimeout sentinel = wheel[(int) (deadlineTick & mask)];
+            timeout.previous = sentinel;
+            timeout.next = sentinel.next;
+            sentinel.next.previous = timeout;
+            sentinel.next = timeout;
+        }
+    }
+
+    /**
+     * Cancels given timeout if it is scheduled.
+     *
+     * @param timeout timeout handle
+     */
+    void cancel(WheelTimeout timeout) {
+        synchronized (lock) {
+            unlink(timeout);
+            timeout.stamp++;
+        }
+    }
+
+    /**
+     * Removes timeout from its bucket. Must be called holding lock.
+     *
+     * @param timeout timeout handle
+     */
+    private void unlink(WheelTimeout timeout) {
+        if (timeout.next != null) {
+            timeout.previous.next = timeout.next;
+            timeout.next.previous = timeout.previous;
+            timeout.next = null;
+            timeout.previous = null;
+        }
+    }
+
+    /**
+     * Worker loop. Waits for the next tick, collects expired timeouts of the bucket
+     * and runs their tasks outside of the lock, so that tasks can reschedule themselves.
+     */
+    private void runWorker() {
+        long tick = 0;
+
+        while (true) {
+            tick++;
+
+            // wait till the tick is due, ticks are processed back to back if we are late
+            long sleepTime = startTime + tick * tickDurationInNanos - System.nanoTime();
+            while (sleepTime > 0) {
+                try {
+                    Thread.sleep(sleepTime / 1000000L, (int) (sleepTime % 1000000L));
+                } catch (InterruptedException e) {
+                    return;
+                }
+                sleepTime = startTime + tick * tickDurationInNanos - System.nanoTime();
+            }
+
+            // collect expired timeouts into intrusive list
+            WheelTimeout expired = null;
+            synchronized (lock) {
+                currentTick = tick;
+
+                WheelTimeout sentinel = wheel[(int) (tick & mask)];
+                WheelTimeout timeout = sentinel.next;
+                while (timeout != sentinel) {
+                    WheelTimeout next = timeout.next;
+                    if (timeout.deadlineTick <= tick) {
+                        unlink(timeout);
+                        timeout.firedStamp = timeout.stamp;
+                        timeout.nextExpired = expired;
+                        expired = timeout;
+                    }
+                    timeout = next;
+                }
+            }
+
+            // run expired tasks
+            while (expired != null) {
+                WheelTimeout timeout = expired;
+                expired = timeout.nextExpired;
+                timeout.nextExpired = null;
+
+                // skip if rescheduled or cancelled after being collected
+                if (timeout.stamp != timeout.firedStamp)
+                    continue;
+
+                try {
+                    timeout.task.run();
+                } catch (Throwable t) {
+                    t.printStackTrace();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package siemens.db.adapt.FailureDetection.failuretrigger;
+
+/**
+ * Accrual failure detector which computes phi from an empirical, log-bucketed histogram
+ * of inter-arrival times instead of fitting a normal distribution (see AccrualHistogramWindow).
+ *
+ * Suited for long-tailed or multi-modal inter-arrival distributions, e.g. under GC pauses and network jitter.
+ * Warm-up, backup trigger and checkpointing behave as in AccrualFailureDetector.
+ * Select it by passing an instance to FailureDetectorContextBuilder.setLocalFailureTriggerStrategy.
+ */
+public class HistogramAccrualFailureDetector extends AccrualFailureDetector {
+
+    /**
+     *
+     * @param suspicionThreshold
+     * @param samplingWindowSize
+     * @param recalculationTimeInMillis
+     */
+    public HistogramAccrualFailureDetector(int suspicionThreshold, int samplingWindowSize, int recalculationTimeInMillis) {
+        super(suspicionThreshold, samplingWindowSize, recalculationTimeInMillis);
+    }
+
+    /**
+     * Batched sweep evaluates normal distribution only, so it is not available for histogram windows.
+     *
+     * @param batchedSweep must be false
+     * @return this detector
+     * @throws IllegalArgumentException if batchedSweep is true
+     */
+    @Override
+    public AccrualFailureDetector setBatchedSweep(boolean batchedSweep) {
+        if (batchedSweep)
+            throw new IllegalArgumentException("Batched sweep can not be used with histogram accrual detector !");
+
+        return this;
+    }
+
+    /**
+     * Creates histogram window.
+     *
+     * @param windowSize sampling window size
+     * @return histogram window
+     */
+    @Override
+    SuspicionWindow createSamplingWindow(int windowSize) {
+        return new AccrualHistogramWindow(windowSize);
+    }
+}
@@ -10,9 +10,18 @@ import java.util.List;
 
 public interface LocalFailureTriggerStrategy {
 
-    void handleReceivedMessage(Failuredetector.FailureCheck failureCheck);
-
-    void handleReceivedMessageFromGossip(HashMap<String, Long> deltaTimes);
+    void handleReceivedMessage(Failuredetector.FailureCheck failureCheck, long arrivalTimeMillis);
+
+    void handleReceivedMessageFromGossip(HashMap<String, Long> deltaTimes, long arrivalTimeMillis);
+
+    /**
+     * Marks peer replica as alive without adding an inter-arrival sample,
+     * e.g. when an indirect probe was answered on its behalf.
+     *
+     * @param peerReplicaId peer replica ID
+     * @param aliveTimeMillis time the peer was known to be alive
+     */
+    void refreshArrival(String peerReplicaId, long aliveTimeMillis);
 
     void start(FailureDetectorContext failureDetectorContext, HashMap<String, PeerReplica> peerReplicaHashMap);
 
@@ -0,0 +1,122 @@
+package siemens.db.adapt.FailureDetection.failuretrigger;
+
+/**
+ * Detects pauses of the local JVM, e.g. GC, safepoints or CPU throttling.
+ *
+ * A daemon thread sleeps for a short interval and measures with System.nanoTime how late it wakes up.
+ * If it is late by more than the pause threshold, the node itself has been stalled and
+ * end of the pause is recorded.
+ *
+ * Failure triggers use compensate to measure silence of a peer replica from the end of the last local pause
+ * instead of from its last arrival, so timeouts firing all at once after a stall do not suspect every peer.
+ * Peers are suspected again only if no fresh message arrives within their usual deadline after the pause.
+ */
+public class PauseDetector {
+
+    private static final int CHECK_INTERVAL_IN_MILLIS = 10;
+    private static final int DEFAULT_PAUSE_THRESHOLD_IN_MILLIS = 50;
+
+    private static PauseDetector sharedInstance;
+
+    private final long checkIntervalInNanos;
+    private final long pauseThresholdInNanos;
+    private final Thread detectorThread;
+
+    // written by detector thread only
+    private volatile long lastCheckNanos;
+    private volatile long lastPauseEndMillis;
+    private volatile long longestPauseInMillis;
+    private volatile long pauseCount;
+
+    /**
+     * Returns pause detector shared by all failure trigger strategies.
+     * Detector is created and started on first call.
+     *
+     * @return shared detector
+     */
+    public static synchronized PauseDetector getSharedInstance() {
+        if (sharedInstance == null)
+            sharedInstance = new PauseDetector(CHECK_INTERVAL_IN_MILLIS, DEFAULT_PAUSE_THRESHOLD_IN_MILLIS);
+
+        return sharedInstance;
+    }
+
+    /**
+     * Starts detector thread.
+     *
+     * @param checkIntervalInMillis sleep time between two checks
+     * @param pauseThresholdInMillis lag above which the node is considered paused
+     */
+    PauseDetector(int checkIntervalInMillis, int pauseThresholdInMillis) {
+        this.checkIntervalInNanos = checkIntervalInMillis * 1000000L;
+        this.pauseThresholdInNanos = pauseThresholdInMillis * 1000000L;
+        this.lastCheckNanos = System.nanoTime();
+        this.lastPauseEndMillis = 0;
+
+        this.detectorThread = new Thread(new Runnable() {
+            public void run() {
+                runDetector();
+            }
+        }, "failure-detector-pause-detector");
+        this.detectorThread.setDaemon(true);
+        this.detectorThread.start();
+    }
+
+    private void runDetector() {
+        while (true) {
+            try {
+                Thread.sleep(checkIntervalInNanos / 1000000L);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            long now = System.nanoTime();
+            long lag = now - lastCheckNanos - checkIntervalInNanos;
+            lastCheckNanos = now;
+
+            if (lag > pauseThresholdInNanos) {
+                long pauseInMillis = lag / 1000000L;
+
+                lastPauseEndMillis = System.currentTimeMillis();
+                pauseCount++;
+                if (pauseInMillis > longestPauseInMillis)
+                    longestPauseInMillis = pauseInMillis;
+
+                System.out.println("Local pause of " + pauseInMillis + " ms detected, compensating failure triggers");
+            }
+        }
+    }
+
+    /**
+     * Returns end of the last local pause.
+     * If detector thread itself is overdue, the node is paused right now or the pause has just ended
+     * without being recorded yet, so current time is returned.
+     *
+     * @return time in ms, 0 if no pause has been detected
+     */
+    public long getLastPauseEnd() {
+        if (System.nanoTime() - lastCheckNanos > checkIntervalInNanos + pauseThresholdInNanos)
+            return System.currentTimeMillis();
+
+        return lastPauseEndMillis;
+    }
+
+    /**
+     * Returns last arrival of a peer replica as seen by a healthy node,
+     * i.e. silence of the peer is only counted after the last local pause.
+     *
+     * @param lastArrivalMillis last arrival time in ms
+     * @return max of last arrival and end of last pause
+     */
+    public long compensate(long lastArrivalMillis) {
+        return Math.max(lastArrivalMillis, getLastPauseEnd());
+    }
+
+    public long getPauseCount() {
+        return pauseCount;
+    }
+
+    public long getLongestPauseInMillis() {
+        return longestPauseInMillis;
+    }
+}
@@ -0,0 +1,33 @@
+package siemens.db.adapt.FailureDetection.failuretrigger;
+
+/**
+ * Window of inter-arrival samples of a single peer replica, used by AccrualFailureDetector
+ * to compute suspicion level.
+ */
+interface SuspicionWindow {
+
+    /**
+     * Adds new inter-arrival sample.
+     *
+     * @param sample inter-arrival time in ms
+     */
+    void addNewSample(long sample);
+
+    boolean isSamplingWindowFull();
+
+    /**
+     * Computes phi value.
+     *
+     * @param lastTimestamp arrival time of last message in ms
+     * @return phi value, 0 if sampling window is not full yet
+     */
+    double phiValue(Long lastTimestamp);
+
+    /**
+     * Copies samples into given array, oldest first. Used for checkpointing.
+     *
+     * @param target array of at least window size
+     * @return number of samples copied
+     */
+    int copySamples(int[] target);
+}
@@ -0,0 +1,46 @@
+package siemens.db.adapt.FailureDetection.failuretrigger;
+
+/**
+ * Reusable timeout handle of HashedWheelTimer.
+ *
+ * One handle is created per task and rescheduled over and over,
+ * so moving a deadline does not allocate.
+ */
+public class WheelTimeout {
+
+    private final HashedWheelTimer timer;
+    final Runnable task;
+
+    // bucket links, guarded by timer lock
+    WheelTimeout previous;
+    WheelTimeout next;
+    long deadlineTick;
+
+    // used by worker thread to chain expired timeouts
+    WheelTimeout nextExpired;
+
+    // incremented on every schedule and cancel, used to skip outdated expirations
+    volatile long stamp;
+    long firedStamp;
+
+    WheelTimeout(HashedWheelTimer timer, Runnable task) {
+        this.timer = timer;
+        this.task = task;
+    }
+
+    /**
+     * Schedules the task to run after delay, dropping previous deadline if any.
+     *
+     * @param delayInMillis delay in ms
+     */
+    public void schedule(long delayInMillis) {
+        timer.schedule(this, delayInMillis);
+    }
+
+    /**
+     * Cancels the timeout.
+     */
+    public void cancel() {
+        timer.cancel(this);
+    }
+}
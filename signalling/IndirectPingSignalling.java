@@ -0,0 +1,321 @@
+package siemens.db.adapt.FailureDetection.signalling;
+
+import siemens.db.adapt.FailureDetection.FailureDetectorContext;
+import siemens.db.adapt.FailureDetection.failuretrigger.HashedWheelTimer;
+import siemens.db.adapt.FailureDetection.failuretrigger.WheelTimeout;
+import siemens.db.adapt.protocol.Failuredetector;
+import siemens.db.adapt.utils.PeerReplica;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class implements SWIM style signalling with indirect probes.
+ *
+ * Every probe interval one peer replica is pinged directly, peers are visited in randomized round robin order.
+ * If no REPLY arrives within probe timeout, k other peer replicas are asked to ping it on our behalf (PING_REQ).
+ * A helper which receives REPLY from the target forwards an INDIRECT_ACK to the requester,
+ * which then counts as a message from the target for local failure trigger strategy.
+ *
+ * So a single lossy link does not make a peer look dead, and per node probe load is constant
+ * regardless of cluster size. Periodic dissemination messages are plain heartbeats and are not replied.
+ */
+public class IndirectPingSignalling implements SignallingStrategy {
+
+    private FailureDetectorContext failureDetectorContext;
+    private long nextMessageId;
+
+    private final int probeIntervalInMillis;
+    private final int probeTimeoutInMillis;
+    private final int indirectProbeCount;
+    private final HashedWheelTimer wheelTimer;
+    private final Random random;
+
+    // peer replicas in current probe order
+    private String[] probeOrder;
+    private int probeIndex;
+
+    // current direct probe
+    private volatile String probeTarget;
+    private volatile long probeMessageId;
+    private volatile boolean probeAnswered;
+
+    // pings sent on behalf of other replicas < MessageID, forwarded probe >
+    private final ConcurrentHashMap<Long, ForwardedProbe> forwardedProbes;
+
+    private WheelTimeout probeTimeout;
+    private WheelTimeout indirectProbeTimeout;
+    private volatile boolean stopped;
+
+    /**
+     * Constructor initiates variables.
+     *
+     * @param probeIntervalInMillis time between two direct probes
+     * @param probeTimeoutInMillis time to wait for a REPLY before indirect probes are sent
+     * @param indirectProbeCount number of replicas asked to probe indirectly (k)
+     */
+    public IndirectPingSignalling(int probeIntervalInMillis, int probeTimeoutInMillis, int indirectProbeCount) {
+        this.nextMessageId = 0;
+        this.probeIntervalInMillis = probeIntervalInMillis;
+        this.probeTimeoutInMillis = probeTimeoutInMillis;
+        this.indirectProbeCount = indirectProbeCount;
+        this.wheelTimer = HashedWheelTimer.getSharedInstance();
+        this.random = new Random();
+        this.forwardedProbes = new ConcurrentHashMap<>();
+        this.probeIndex = 0;
+    }
+
+    /**
+     * Adds heartbeat header to periodic messages.
+     *
+     * @param failureCheckMessage
+     * @return
+     */
+    @Override
+    public Failuredetector.FailureCheck.Builder addSignallingHeader(Failuredetector.FailureCheck.Builder failureCheckMessage) {
+
+        return failureCheckMessage.setMessageId(newMessageId())
+                .setSignallingStrategy(Failuredetector.FailureCheck.SignallingStrategy.INDIRECT_PING)
+                .setMessageType(Failuredetector.FailureCheck.MessageType.PING);
+    }
+
+    /**
+     * Starts probing peer replicas.
+     *
+     * @param peerReplicaHashMap peer replicas
+     */
+    public void start(HashMap<String, PeerReplica> peerReplicaHashMap) {
+        probeOrder = peerReplicaHashMap.keySet().toArray(new String[0]);
+        shuffleProbeOrder();
+        stopped = false;
+
+        indirectProbeTimeout = wheelTimer.newTimeout(new Runnable() {
+            public void run() {
+                failureDetectorContext.execute(new Runnable() {
+                    public void run() {
+                        if (!probeAnswered && probeTarget != null && !stopped)
+                            sendIndirectProbes(probeTarget);
+                    }
+                });
+            }
+        });
+
+        probeTimeout = wheelTimer.newTimeout(new Runnable() {
+            public void run() {
+                if (stopped)
+                    return;
+
+                failureDetectorContext.execute(new Runnable() {
+                    public void run() {
+                        sendDirectProbe();
+                        removeExpiredForwardedProbes();
+                    }
+                });
+
+                probeTimeout.schedule(probeIntervalInMillis);
+            }
+        });
+        probeTimeout.schedule(probeIntervalInMillis);
+    }
+
+    /**
+     * Stops probing.
+     */
+    public void stop() {
+        stopped = true;
+
+        if (probeTimeout != null)
+            probeTimeout.cancel();
+        if (indirectProbeTimeout != null)
+            indirectProbeTimeout.cancel();
+    }
+
+    /**
+     * Pings next replica in probe order and schedules the check for its REPLY.
+     */
+    private void sendDirectProbe() {
+        if (probeOrder.length == 0)
+            return;
+
+        if (probeIndex >= probeOrder.length) {
+            shuffleProbeOrder();
+            probeIndex = 0;
+        }
+        String target = probeOrder[probeIndex++];
+
+        Failuredetector.FailureCheck.Builder ping = Failuredetector.FailureCheck.newBuilder()
+                .setMessageId(newMessageId())
+                .setDestinationReplicaId(target)
+                .setSignallingStrategy(Failuredetector.FailureCheck.SignallingStrategy.INDIRECT_PING)
+                .setMessageType(Failuredetector.FailureCheck.MessageType.PING);
+
+        probeAnswered = false;
+        probeMessageId = ping.getMessageId();
+        probeTarget = target;
+
+        failureDetectorContext.triggerSignallingMessage(ping);
+        indirectProbeTimeout.schedule(probeTimeoutInMillis);
+    }
+
+    /**
+     * Asks k random replicas other than the target to ping it.
+     *
+     * @param target replica which did not answer
+     */
+    private void sendIndirectProbes(String target) {
+        int helperCount = Math.min(indirectProbeCount, probeOrder.length - 1);
+        int start = random.nextInt(probeOrder.length);
+
+        for (int i = 0, sent = 0; i < probeOrder.length && sent < helperCount; i++) {
+            String helper = probeOrder[(start + i) % probeOrder.length];
+            if (helper.equals(target))
+                continue;
+
+            failureDetectorContext.triggerSignallingMessage(Failuredetector.FailureCheck.newBuilder()
+                    .setMessageId(newMessageId())
+                    .setDestinationReplicaId(helper)
+                    .setIndirectProbeTargetReplicaId(target)
+                    .setSignallingStrategy(Failuredetector.FailureCheck.SignallingStrategy.INDIRECT_PING)
+                    .setMessageType(Failuredetector.FailureCheck.MessageType.PING_REQ));
+            sent++;
+        }
+    }
+
+    /**
+     * This method handles incoming message from other replicas.
+     *
+     * Direct PING is replied, PING_REQ is forwarded to its target as PING,
+     * REPLY either answers our direct probe or is forwarded as INDIRECT_ACK,
+     * and INDIRECT_ACK is reported to FailureDetectorContext as a sign of life of its target.
+     *
+     * @param failureCheckMessage received message from other replicas.
+     */
+    @Override
+    public void handleReceivedMessage(Failuredetector.FailureCheck failureCheckMessage) {
+        Failuredetector.FailureCheck.MessageType messageType = failureCheckMessage.getMessageType();
+
+        // direct probe, messages without destination are heartbeats
+        if (messageType.equals(Failuredetector.FailureCheck.MessageType.PING)
+                && !failureCheckMessage.getDestinationReplicaId().isEmpty()) {
+
+            failureDetectorContext.triggerSignallingReply(Failuredetector.FailureCheck.newBuilder()
+                    .setMessageId(failureCheckMessage.getMessageId())
+                    .setDestinationReplicaId(failureCheckMessage.getReplicaId())
+                    .setSignallingStrategy(Failuredetector.FailureCheck.SignallingStrategy.INDIRECT_PING)
+                    .setMessageType(Failuredetector.FailureCheck.MessageType.REPLY));
+        }
+
+        // probe target on behalf of sender
+        else if (messageType.equals(Failuredetector.FailureCheck.MessageType.PING_REQ)) {
+            String target = failureCheckMessage.getIndirectProbeTargetReplicaId();
+
+            Failuredetector.FailureCheck.Builder ping = Failuredetector.FailureCheck.newBuilder()
+                    .setMessageId(newMessageId())
+                    .setDestinationReplicaId(target)
+                    .setSignallingStrategy(Failuredetector.FailureCheck.SignallingStrategy.INDIRECT_PING)
+                    .setMessageType(Failuredetector.FailureCheck.MessageType.PING);
+
+            forwardedProbes.put(ping.getMessageId(),
+                    new ForwardedProbe(failureCheckMessage.getReplicaId(), target, System.currentTimeMillis()));
+            failureDetectorContext.triggerSignallingMessage(ping);
+        }
+
+        else if (messageType.equals(Failuredetector.FailureCheck.MessageType.REPLY)) {
+            // answer to our direct probe
+            if (failureCheckMessage.getMessageId() == probeMessageId
+                    && failureCheckMessage.getReplicaId().equals(probeTarget)) {
+                probeAnswered = true;
+                return;
+            }
+
+            // answer to a probe sent on behalf of another replica
+            ForwardedProbe forwardedProbe = forwardedProbes.remove(failureCheckMessage.getMessageId());
+            if (forwardedProbe != null && forwardedProbe.target.equals(failureCheckMessage.getReplicaId())) {
+                failureDetectorContext.triggerSignallingMessage(Failuredetector.FailureCheck.newBuilder()
+                        .setMessageId(newMessageId())
+                        .setDestinationReplicaId(forwardedProbe.requester)
+                        .setIndirectProbeTargetReplicaId(forwardedProbe.target)
+                        .setSignallingStrategy(Failuredetector.FailureCheck.SignallingStrategy.INDIRECT_PING)
+                        .setMessageType(Failuredetector.FailureCheck.MessageType.INDIRECT_ACK));
+            }
+        }
+
+        // target answered to one of our helpers
+        else if (messageType.equals(Failuredetector.FailureCheck.MessageType.INDIRECT_ACK)) {
+            String target = failureCheckMessage.getIndirectProbeTargetReplicaId();
+            if (target.equals(probeTarget))
+                probeAnswered = true;
+
+            failureDetectorContext.handleIndirectProbeAck(target);
+        }
+    }
+
+    /**
+     * Removes forwarded probes which have not been answered in time.
+     */
+    private void removeExpiredForwardedProbes() {
+        long expiryTime = System.currentTimeMillis() - 2L * probeTimeoutInMillis;
+
+        for (Iterator<Map.Entry<Long, ForwardedProbe>> iterator = forwardedProbes.entrySet().iterator();
+             iterator.hasNext(); ) {
+            if (iterator.next().getValue().sentAt < expiryTime)
+                iterator.remove();
+        }
+    }
+
+    /**
+     * Shuffles probe order, so that every replica is probed once per round in random order.
+     */
+    private void shuffleProbeOrder() {
+        for (int i = probeOrder.length - 1; i > 0; i--) {
+            int k = random.nextInt(i + 1);
+            String temp = probeOrder[i];
+            probeOrder[i] = probeOrder[k];
+            probeOrder[k] = temp;
+        }
+    }
+
+    private synchronized long newMessageId() {
+        nextMessageId ++;
+
+        return nextMessageId;
+    }
+
+    /**
+     * Sets FailureDetectionContext object.
+     *
+     * @param failureDetectorContext
+     */
+    @Override
+    public void setFailureDetectorContext(FailureDetectorContext failureDetectorContext) {
+        this.failureDetectorContext = failureDetectorContext;
+    }
+
+    /**
+     * Returns signalling method used.
+     *
+     * @return
+     */
+    @Override
+    public Failuredetector.FailureCheck.SignallingStrategy getSignallingMethod() {
+        return Failuredetector.FailureCheck.SignallingStrategy.INDIRECT_PING;
+    }
+
+    /**
+     * Ping sent on behalf of another replica.
+     */
+    private static class ForwardedProbe {
+        final String requester;
+        final String target;
+        final long sentAt;
+
+        ForwardedProbe(String requester, String target, long sentAt) {
+            this.requester = requester;
+            this.target = target;
+            this.sentAt = sentAt;
+        }
+    }
+}